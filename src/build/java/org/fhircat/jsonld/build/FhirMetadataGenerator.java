@@ -0,0 +1,255 @@
+package org.fhircat.jsonld.build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * Generates <code>org.fhircat.jsonld.cli.FhirMetadata</code> from the FHIR ontology at build time, so that the
+ * ontology is never parsed at run time. Run by the exec plugin in the generate-sources phase:
+ *
+ * <pre>java -cp &lt;project classpath&gt; FhirMetadataGenerator.java &lt;fhir.ttl&gt; &lt;code-systems.properties&gt; &lt;output directory&gt;</pre>
+ */
+public class FhirMetadataGenerator {
+
+  private static final String FHIR_NS = "http://hl7.org/fhir/";
+
+  private static final String PACKAGE = "org.fhircat.jsonld.cli";
+
+  private static final String CLASS_NAME = "FhirMetadata";
+
+  // String constants are limited to 65535 bytes in a class file
+  private static final int CHUNK_SIZE = 60000;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("Usage: FhirMetadataGenerator <fhir.ttl> <code-systems.properties> <output directory>");
+      System.exit(1);
+    }
+
+    Path ontology = Paths.get(args[0]);
+    Path codeSystems = Paths.get(args[1]);
+    Path output = Paths.get(args[2]).resolve(PACKAGE.replace('.', '/')).resolve(CLASS_NAME + ".java");
+
+    if (! Files.isRegularFile(ontology)) {
+      throw new IllegalArgumentException("FHIR ontology not found: " + ontology);
+    }
+
+    Model model = RDFDataMgr.loadModel(ontology.toString());
+
+    Map<String, String> ranges = getRanges(model);
+    Set<String> resourceTypes = getResourceTypes(model);
+    Map<String, String> codeSystemPrefixes = getCodeSystemPrefixes(codeSystems);
+
+    Files.createDirectories(output.getParent());
+
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8))) {
+      write(out, ontology, ranges, resourceTypes, codeSystemPrefixes);
+    }
+
+    System.out.println("Generated " + output + ": " + ranges.size() + " element ranges, " + resourceTypes.size()
+        + " resource types, " + codeSystemPrefixes.size() + " code systems");
+  }
+
+  /**
+   * Element path (e.g. 'Patient.birthDate') to range type, for the FHIR properties with an <code>rdfs:range</code>.
+   */
+  private static Map<String, String> getRanges(Model model) {
+    Map<String, String> ranges = new TreeMap<>();
+
+    model.listStatements(null, RDFS.range, (RDFNode) null).forEachRemaining(statement -> {
+      Resource property = statement.getSubject();
+
+      if (property.isURIResource() && property.getURI().startsWith(FHIR_NS) && statement.getObject().isURIResource()) {
+        String path = property.getURI().substring(FHIR_NS.length());
+        String range = statement.getObject().asResource().getURI();
+
+        String previous = ranges.put(path, range);
+        if (previous != null && ! previous.equals(range)) {
+          throw new IllegalStateException("Too many ranges found for " + path + ": " + previous + ", " + range);
+        }
+      }
+    });
+
+    return ranges;
+  }
+
+  /**
+   * The concrete resource types: the subclasses of <code>fhir:Resource</code> (transitively) without subclasses of their own.
+   */
+  private static Set<String> getResourceTypes(Model model) {
+    Set<String> resourceTypes = new TreeSet<>();
+
+    Deque<Resource> pending = new ArrayDeque<>();
+    pending.add(model.createResource(FHIR_NS + "Resource"));
+
+    Set<Resource> visited = new HashSet<>();
+
+    while (! pending.isEmpty()) {
+      Resource type = pending.poll();
+
+      if (! visited.add(type)) {
+        continue;
+      }
+
+      boolean hasSubclasses = false;
+      for (Statement statement : model.listStatements(null, RDFS.subClassOf, type).toList()) {
+        if (statement.getSubject().isURIResource() && statement.getSubject().getURI().startsWith(FHIR_NS)) {
+          pending.add(statement.getSubject());
+          hasSubclasses = true;
+        }
+      }
+
+      if (! hasSubclasses && ! type.getURI().equals(FHIR_NS + "Resource")) {
+        resourceTypes.add(type.getURI().substring(FHIR_NS.length()));
+      }
+    }
+
+    if (resourceTypes.isEmpty()) {
+      throw new IllegalStateException("No resource types (subclasses of fhir:Resource) in the ontology.");
+    }
+
+    return resourceTypes;
+  }
+
+  private static Map<String, String> getCodeSystemPrefixes(Path codeSystems) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(codeSystems)) {
+      properties.load(in);
+    }
+
+    Map<String, String> prefixes = new TreeMap<>();
+    properties.stringPropertyNames().forEach(system -> prefixes.put(system, properties.getProperty(system)));
+
+    return prefixes;
+  }
+
+  private static void write(PrintWriter out, Path ontology, Map<String, String> ranges, Set<String> resourceTypes,
+      Map<String, String> codeSystemPrefixes) throws IOException {
+    out.println("package " + PACKAGE + ";");
+    out.println();
+    out.println("import java.util.HashMap;");
+    out.println("import java.util.Map;");
+    out.println("import java.util.Optional;");
+    out.println("import java.util.Set;");
+    out.println();
+    out.println("/**");
+    out.println(" * FHIR metadata tables, generated from " + ontology.getFileName() + " (SHA-256 " + sha256(ontology) + ")");
+    out.println(" * by FhirMetadataGenerator at build time. Do not edit.");
+    out.println(" */");
+    out.println("public final class " + CLASS_NAME + " {");
+    out.println();
+    out.println("  private " + CLASS_NAME + "() { }");
+    out.println();
+    out.println("  /**");
+    out.println("   * The concrete resource types.");
+    out.println("   */");
+    out.println("  public static final Set<String> RESOURCE_TYPES = Set.of(");
+    out.println(String.join(",\n", resourceTypes.stream().map(type -> "      " + quote(type)).toArray(String[]::new)));
+    out.println("  );");
+    out.println();
+    out.println("  /**");
+    out.println("   * The prefix of the codes of a code system, by code system URI.");
+    out.println("   */");
+    out.println("  public static final Map<String, String> CODE_SYSTEM_PREFIXES = Map.ofEntries(");
+    out.println(String.join(",\n", codeSystemPrefixes.entrySet().stream()
+        .map(entry -> "      Map.entry(" + quote(entry.getKey()) + ", " + quote(entry.getValue()) + ")")
+        .toArray(String[]::new)));
+    out.println("  );");
+    out.println();
+    out.println("  // Element path and range type, one pair per line; FHIR range types are relative to the FHIR namespace");
+    out.println("  private static final String[] RANGE_TABLE = {");
+
+    StringBuilder chunk = new StringBuilder();
+    for (Map.Entry<String, String> entry : ranges.entrySet()) {
+      String range = entry.getValue().startsWith(FHIR_NS) ? entry.getValue().substring(FHIR_NS.length()) : entry.getValue();
+      String line = entry.getKey() + " " + range + "\n";
+
+      if (chunk.length() + line.length() > CHUNK_SIZE) {
+        writeChunk(out, chunk);
+        chunk.setLength(0);
+      }
+      chunk.append(line);
+    }
+    writeChunk(out, chunk);
+
+    out.println("  };");
+    out.println();
+    out.println("  private static final Map<String, String> RANGES = parseRanges();");
+    out.println();
+    out.println("  /**");
+    out.println("   * The range type URI of an element path (e.g. 'Patient.birthDate'), if the ontology defines one.");
+    out.println("   */");
+    out.println("  public static Optional<String> getRange(String path) {");
+    out.println("    return Optional.ofNullable(RANGES.get(path));");
+    out.println("  }");
+    out.println();
+    out.println("  private static Map<String, String> parseRanges() {");
+    out.println("    Map<String, String> ranges = new HashMap<>();");
+    out.println();
+    out.println("    for (String chunk : RANGE_TABLE) {");
+    out.println("      for (String line : chunk.split(\"\\n\")) {");
+    out.println("        int separator = line.indexOf(' ');");
+    out.println("        String range = line.substring(separator + 1);");
+    out.println();
+    out.println("        ranges.put(line.substring(0, separator), range.contains(\":\") ? range : FHIR.FHIR_NS + range);");
+    out.println("      }");
+    out.println("    }");
+    out.println();
+    out.println("    return ranges;");
+    out.println("  }");
+    out.println();
+    out.println("}");
+  }
+
+  private static void writeChunk(PrintWriter out, StringBuilder chunk) {
+    if (chunk.length() == 0) {
+      return;
+    }
+
+    String[] lines = chunk.toString().split("\n");
+    for (int i = 0; i < lines.length; i++) {
+      out.println("      " + quote(lines[i] + "\n") + (i < lines.length - 1 ? " +" : ","));
+    }
+  }
+
+  private static String quote(String value) {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+  }
+
+  private static String sha256(Path file) throws IOException {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file));
+
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -1,13 +1,38 @@
 package org.fhircat.jsonld.cli;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.Sets;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.PatternSyntaxException;
 import org.apache.commons.cli.CommandLine;
+import org.apache.commons.lang3.StringUtils;
+import org.fhircat.jsonld.cli.exceptions.InvalidParameterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An abstract base class for the {@link Operation} interface.
  */
 public abstract class BaseOperation implements Operation {
 
+  private static Logger log = LoggerFactory.getLogger(BaseOperation.class);
+
+  // Rough heap needed per byte of input JSON: parsed maps, pre-JSON, JSON-LD dataset and Jena model
+  private static final double DEFAULT_MEMORY_FACTOR = 30;
+
+  private static final double DEFAULT_HEAP_BUDGET_FRACTION = 0.75;
+
   @Override
   public void run(CommandLine command) throws Exception {
     String inputFilePath = command.getOptionValue("input");
@@ -21,4 +46,163 @@ public abstract class BaseOperation implements Operation {
 
   protected abstract void doRun(File inputFile, File outputFile, CommandLine command);
 
+  protected int getThreads(CommandLine command, int defaultThreads) {
+    String threads = command.getOptionValue("threads");
+
+    if (StringUtils.isBlank(threads)) {
+      return defaultThreads;
+    }
+
+    if (! StringUtils.isNumeric(threads) || Integer.parseInt(threads) < 1) {
+      throw new InvalidParameterException("threads", threads, "Parameter must be a positive number.");
+    }
+
+    return Integer.parseInt(threads);
+  }
+
+  /**
+   * The input files of <code>inputFile</code> (see {@link InputFinder}) of a supported type, selected by
+   * the include and exclude globs.
+   */
+  protected InputFinder getInputs(File inputFile, CommandLine command, Predicate<String> supported) {
+    if (InputFinder.isManifest(inputFile)) {
+      String manifest = InputFinder.getManifest(inputFile);
+
+      if (! manifest.equals("-") && ! new File(manifest).isFile()) {
+        throw new InvalidParameterException("i", inputFile.getPath(), "The input list file does not exist.");
+      }
+    }
+
+    return new InputFinder(inputFile, supported, this.getGlobs(command, "include"), this.getGlobs(command, "exclude"));
+  }
+
+  private List<String> getGlobs(CommandLine command, String option) {
+    String[] globs = command.getOptionValues(option);
+
+    if (globs == null) {
+      return Collections.emptyList();
+    }
+
+    for (String glob : globs) {
+      try {
+        FileSystems.getDefault().getPathMatcher("glob:" + glob);
+      } catch (PatternSyntaxException e) {
+        throw new InvalidParameterException(option, glob, "Invalid glob: " + e.getDescription());
+      }
+    }
+
+    return Arrays.asList(globs);
+  }
+
+  /**
+   * Applies <code>fn</code> to each input file, using up to <code>threads</code> files in parallel,
+   * largest queued files first and admitted against the heap budget (see {@link SizeAwareScheduler}).
+   * Files are scheduled as they are found. Errors thrown by <code>fn</code> are logged.
+   *
+   * The files of an input list are skipped, with a warning, if an earlier one has the same relative path (so the
+   * same outputs).
+   */
+  protected SizeAwareScheduler.Summary forEachFile(InputFinder inputs, CommandLine command, int defaultThreads,
+      Consumer<InputFinder.Input> fn) {
+    SizeAwareScheduler<InputFinder.Input> scheduler = new SizeAwareScheduler<>(
+        this.getThreads(command, defaultThreads),
+        this.getHeapBudget(command),
+        this.getPositiveDouble(command, "memfactor", DEFAULT_MEMORY_FACTOR),
+        input -> input.getFile().length(),
+        fn);
+
+    // A directory walk cannot find two files with the same relative path, but a list can
+    Set<String> relativePaths = inputs.isList() ? Sets.newHashSet() : null;
+
+    scheduler.start();
+
+    try {
+      inputs.forEach(input -> {
+        if (relativePaths != null && ! relativePaths.add(input.getRelativePath())) {
+          log.warn("Skipping " + input + ": another input has the same output path (" + input.getRelativePath() + ")");
+          return;
+        }
+
+        scheduler.submit(input);
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+
+    return scheduler.awaitCompletion();
+  }
+
+  /**
+   * The types of all resources in the plain JSON input files (including contained and Bundle entry resources)
+   * that have a ShEx shape, found by a streaming scan for 'resourceType' fields.
+   */
+  protected Set<String> scanResourceTypes(List<File> files) {
+    JsonFactory factory = new JsonFactory();
+    Set<String> resourceTypes = Sets.newTreeSet();
+
+    files.forEach(file -> scanResourceTypes(factory, file, resourceTypes));
+
+    return withShapes(resourceTypes);
+  }
+
+  private static Set<String> withShapes(Set<String> resourceTypes) {
+    Set<String> unknown = Sets.difference(resourceTypes, ShExSchemaSlicer.getResourceTypes());
+    if (! unknown.isEmpty()) {
+      log.debug("No ShEx shapes for resource types: " + unknown);
+    }
+
+    return Sets.intersection(resourceTypes, ShExSchemaSlicer.getResourceTypes()).immutableCopy();
+  }
+
+  private static void scanResourceTypes(JsonFactory factory, File file, Set<String> resourceTypes) {
+    if (! RecordReader.isPlainJson(file.getName())) {
+      return;
+    }
+
+    try (JsonParser parser = factory.createParser(file)) {
+      JsonToken token;
+      while ((token = parser.nextToken()) != null) {
+        if (token == JsonToken.FIELD_NAME && parser.getCurrentName().equals("resourceType")
+            && parser.nextToken() == JsonToken.VALUE_STRING) {
+          resourceTypes.add(parser.getText());
+        }
+      }
+    } catch (IOException e) {
+      log.debug("Skipping unreadable file in resource type scan: " + file.getPath() + ": " + e.getMessage());
+    }
+  }
+
+  private long getHeapBudget(CommandLine command) {
+    String heapBudget = command.getOptionValue("heapbudget");
+
+    if (StringUtils.isBlank(heapBudget)) {
+      return (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_BUDGET_FRACTION);
+    }
+
+    return (long) (this.getPositiveDouble(command, "heapbudget", 0) * 1024 * 1024);
+  }
+
+  private double getPositiveDouble(CommandLine command, String option, double defaultValue) {
+    String value = command.getOptionValue(option);
+
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+
+    try {
+      double parsed = Double.parseDouble(value);
+
+      if (parsed > 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // fall through
+    }
+
+    throw new InvalidParameterException(option, value, "Parameter must be a positive number.");
+  }
+
 }
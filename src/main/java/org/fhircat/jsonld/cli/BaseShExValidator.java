@@ -1,6 +1,8 @@
 package org.fhircat.jsonld.cli;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.query.Query;
@@ -17,10 +19,27 @@ import org.fhircat.jsonld.cli.exceptions.ShExValidationException;
  */
 public abstract class BaseShExValidator implements Validator {
 
+  private final Set<String> resourceTypes;
+
   public BaseShExValidator() {
+    this(Collections.emptySet());
+  }
+
+  /**
+   * @param resourceTypes the resource types to validate, for a sliced schema (see {@link ShExSchemaSlicer}), or empty for the whole schema
+   */
+  public BaseShExValidator(Set<String> resourceTypes) {
+    this.resourceTypes = Set.copyOf(resourceTypes);
+  }
+
+  protected Set<String> getResourceTypes() {
+    return this.resourceTypes;
   }
 
-  synchronized void lazyInit() {
+  /**
+   * Loads the shared schema on first use. Called by every validation, so must be cheap (and thread-safe) once loaded.
+   */
+  void lazyInit() {
     //
   }
 
@@ -32,8 +51,14 @@ public abstract class BaseShExValidator implements Validator {
 
     String resourceType = this.getResourceType(model, focusUri);
 
+    String typeName = StringUtils.substringAfterLast(resourceType, "/");
+
+    if (! this.resourceTypes.isEmpty() && ! this.resourceTypes.contains(typeName)) {
+      throw new ShExValidationException("The ShEx schema was sliced without resource type " + typeName + ": " + focusUri);
+    }
+
     String focusNode = focusUri;
-    String shapeLabel =  "http://hl7.org/fhir/shape/" + StringUtils.substringAfterLast(resourceType, "/"); //to change with what you want
+    String shapeLabel =  "http://hl7.org/fhir/shape/" + typeName; //to change with what you want
 
     boolean result = this.doValidate(focusNode, shapeLabel, model, errorHandler);
 
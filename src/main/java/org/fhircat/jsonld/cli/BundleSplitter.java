@@ -0,0 +1,113 @@
+package org.fhircat.jsonld.cli;
+
+import com.apicatalog.rdf.Rdf;
+import com.apicatalog.rdf.RdfDataset;
+import com.apicatalog.rdf.RdfNQuad;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Splits the pre-JSON of a large Bundle into documents that JSON-LD can expand independently: an envelope,
+ * holding the Bundle with a reference in place of each entry resource, and one document per entry resource.
+ *
+ * An entry document keeps its resource at the same place under the Bundle's context (<code>entry</code>,
+ * then <code>resource</code>), so the same contexts apply as in the whole Bundle. The triples of the two
+ * wrapper nodes are removed with {@link #unwrap}; together the documents give the triples of the whole Bundle.
+ */
+final class BundleSplitter {
+
+  private static final String BUNDLE_TYPE = "fhir:Bundle";
+
+  // Nodes of the entry documents that only place the resource, and whose triples are dropped
+  private static final String WRAPPER_BUNDLE = "urn:fhircat:bundle-split:bundle";
+  private static final String WRAPPER_ENTRY = "urn:fhircat:bundle-split:entry";
+
+  private static final Set<String> WRAPPERS = Set.of(WRAPPER_BUNDLE, WRAPPER_ENTRY);
+
+  private BundleSplitter() { }
+
+  /**
+   * The envelope and entry documents of a preprocessed Bundle, or empty if it is not a Bundle or has fewer
+   * than <code>minEntries</code> entry resources that can be split out (those with an id).
+   */
+  static Optional<List<Map<String, Object>>> split(Map<String, Object> preprocessedJson, int minEntries) {
+    if (! BUNDLE_TYPE.equals(preprocessedJson.get("resourceType")) || ! (preprocessedJson.get("entry") instanceof List)) {
+      return Optional.empty();
+    }
+
+    List<Object> entries = (List<Object>) preprocessedJson.get("entry");
+
+    List<Object> envelopeEntries = Lists.newArrayListWithCapacity(entries.size());
+    List<Map<String, Object>> documents = Lists.newArrayList();
+    documents.add(null);  // The envelope, once complete
+
+    for (Object entry : entries) {
+      Object resource = entry instanceof Map ? ((Map) entry).get("resource") : null;
+
+      if (! (resource instanceof Map) || ! (((Map) resource).get("@id") instanceof String)) {
+        // No id to link the resource from the envelope -- keep it in there
+        envelopeEntries.add(entry);
+        continue;
+      }
+
+      Map<String, Object> reference = Maps.newLinkedHashMap();
+      if (((Map) resource).containsKey("@context")) {
+        // Resolve the id as the resource itself would
+        reference.put("@context", ((Map) resource).get("@context"));
+      }
+      reference.put("@id", ((Map) resource).get("@id"));
+
+      Map<String, Object> envelopeEntry = Maps.newLinkedHashMap((Map<String, Object>) entry);
+      envelopeEntry.put("resource", reference);
+      envelopeEntries.add(envelopeEntry);
+
+      documents.add(wrap(preprocessedJson, (Map<String, Object>) resource));
+    }
+
+    if (documents.size() - 1 < minEntries) {
+      return Optional.empty();
+    }
+
+    Map<String, Object> envelope = Maps.newLinkedHashMap(preprocessedJson);
+    envelope.put("entry", envelopeEntries);
+    documents.set(0, envelope);
+
+    return Optional.of(documents);
+  }
+
+  private static Map<String, Object> wrap(Map<String, Object> bundle, Map<String, Object> resource) {
+    Map<String, Object> entry = Maps.newLinkedHashMap();
+    entry.put("@id", WRAPPER_ENTRY);
+    entry.put("resource", resource);
+
+    Map<String, Object> wrapper = Maps.newLinkedHashMap();
+    if (bundle.containsKey("@context")) {
+      wrapper.put("@context", bundle.get("@context"));
+    }
+    wrapper.put("@id", WRAPPER_BUNDLE);
+    wrapper.put("resourceType", bundle.get("resourceType"));
+    wrapper.put("entry", Lists.newArrayList(entry));
+
+    return wrapper;
+  }
+
+  /**
+   * The dataset of an entry document without the triples of its wrapper nodes.
+   */
+  static RdfDataset unwrap(RdfDataset dataset) {
+    RdfDataset unwrapped = Rdf.createDataset();
+
+    for (RdfNQuad quad : dataset.toList()) {
+      if (! (quad.getSubject().isIRI() && WRAPPERS.contains(quad.getSubject().getValue()))) {
+        unwrapped.add(quad);
+      }
+    }
+
+    return unwrapped;
+  }
+
+}
@@ -1,6 +1,10 @@
 package org.fhircat.jsonld.cli;
 
 import ch.qos.logback.classic.Level;
+import com.google.common.collect.Maps;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -16,7 +20,23 @@ import org.slf4j.LoggerFactory;
  */
 public class Cli {
 
+  private static final String DEFAULT_OPERATION = "tordf";
+
+  private static final Map<String, Supplier<Operation>> operations = Maps.newLinkedHashMap();
+  static {
+    operations.put("tordf", ToRdf::new);
+    operations.put("preprocess", Preprocess::new);
+    operations.put("compareshex", CompareShEx::new);
+  }
+
   public static void main(String... args) throws Throwable {
+    // An optional leading sub-command selects the operation
+    String operationName = DEFAULT_OPERATION;
+    if (args.length > 0 && ! args[0].startsWith("-")) {
+      operationName = args[0];
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+
     Options options = new Options();
 
     Option outputFormat = new Option("f", "outputFormat", true,
@@ -24,18 +44,85 @@ public class Cli {
     outputFormat.setRequired(false);
     options.addOption(outputFormat);
 
-    Option input = new Option("i", "input", true, "input file path (single file or directory)");
+    Option input = new Option("i", "input", true, "input file path (single file, directory searched recursively, or '@' and a file listing input paths, '@-' to read them from standard input; JSON, NDJSON, compressed or archived), or '-' for NDJSON on standard input");
     input.setRequired(true);
     options.addOption(input);
 
+    Option include = new Option("inc", "include", true, "only process input files matching this glob (matched against the file name, or the path relative to the input directory if it has a '/'; repeatable)");
+    include.setRequired(false);
+    options.addOption(include);
+
+    Option exclude = new Option("exc", "exclude", true, "skip input files and directories matching this glob (as --include; repeatable)");
+    exclude.setRequired(false);
+    options.addOption(exclude);
+
     Option output = new Option("o", "output", true, "output file (single file or directory) - standard output if omitted");
     output.setRequired(false);
     options.addOption(output);
 
+    Option tdb2 = new Option("tdb", "tdb2", true, "load the output into a TDB2 dataset directory (one named graph per resource)");
+    tdb2.setRequired(false);
+    options.addOption(tdb2);
+
+    Option tdb2Batch = new Option("tdbb", "tdb2batch", true, "number of resources per TDB2 load transaction (default: 1000)");
+    tdb2Batch.setRequired(false);
+    options.addOption(tdb2Batch);
+
+    Option dedup = new Option("dd", "dedup", false, "write all resources to one sorted N-Quads output file without duplicate quads");
+    dedup.setType(Boolean.class);
+    dedup.setRequired(false);
+    options.addOption(dedup);
+
+    Option dedupMemory = new Option("ddm", "dedupmemory", true, "memory in MB for deduplication before spilling to disk (default: 256)");
+    dedupMemory.setRequired(false);
+    options.addOption(dedupMemory);
+
     Option pre = new Option("p", "pre", true, "output the intermediate 'pre'-JSON structures");
     pre.setRequired(false);
     options.addOption(pre);
 
+    Option preFormat = new Option("pf", "preformat", true, "layout of the 'pre'-JSON output (one of: indent,compact)");
+    preFormat.setRequired(false);
+    options.addOption(preFormat);
+
+    Option context = new Option("c", "context", false, "add the JSON-LD @context to the 'pre'-JSON output (preprocess only)");
+    context.setType(Boolean.class);
+    context.setRequired(false);
+    options.addOption(context);
+
+    Option threads = new Option("t", "threads", true, "number of files (or streamed resources) to process in parallel");
+    threads.setRequired(false);
+    options.addOption(threads);
+
+    Option bundleThreads = new Option("bt", "bundlethreads", true, "number of threads converting the entries of a large Bundle (default: the number of processors)");
+    bundleThreads.setRequired(false);
+    options.addOption(bundleThreads);
+
+    Option unordered = new Option("uo", "unordered", false, "emit results as they complete rather than in input order (streamed input only)");
+    unordered.setType(Boolean.class);
+    unordered.setRequired(false);
+    options.addOption(unordered);
+
+    Option flush = new Option("fl", "flush", true, "flush the output every N resources (streamed input only, default: 1)");
+    flush.setRequired(false);
+    options.addOption(flush);
+
+    Option heapBudget = new Option("hb", "heapbudget", true, "heap budget in MB for inputs processed concurrently (default: 75% of the maximum heap)");
+    heapBudget.setRequired(false);
+    options.addOption(heapBudget);
+
+    Option memFactor = new Option("mf", "memfactor", true, "estimated heap needed per byte of input, used for the heap budget (default: 30)");
+    memFactor.setRequired(false);
+    options.addOption(memFactor);
+
+    Option cacheSize = new Option("ccs", "cachesize", true, "number of triples to keep in the in-memory conversion cache (default: 0)");
+    cacheSize.setRequired(false);
+    options.addOption(cacheSize);
+
+    Option cacheDirectory = new Option("ccd", "cachedir", true, "directory for a persistent conversion cache, shared between runs");
+    cacheDirectory.setRequired(false);
+    options.addOption(cacheDirectory);
+
     Option versionBase = new Option("vb", "versionbase", true, "base URI for OWL version");
     versionBase.setRequired(false);
     options.addOption(versionBase);
@@ -57,6 +144,14 @@ public class Cli {
     shexImpl.setRequired(false);
     options.addOption(shexImpl);
 
+    Option shapes = new Option("sh", "shapes", true, "resource types to load ShEx shapes for (comma separated, or 'all') - default: the types in the input");
+    shapes.setRequired(false);
+    options.addOption(shapes);
+
+    Option validationPolicy = new Option("vp", "validationpolicy", true, "which resources to validate (one of: all,fraction:F,first:N,stratified:F[:N]) - default: all");
+    validationPolicy.setRequired(false);
+    options.addOption(validationPolicy);
+
     Option verbose = new Option("V", "verbose", false, "print extra logging messages");
     verbose.setType(Boolean.class);
     verbose.setRequired(false);
@@ -72,6 +167,8 @@ public class Cli {
     CommandLine command = null;
 
     String helpText = "FHIRCat JSON-LD Command Line Interface";
+    String helpHeader = "sub-commands (optional, first argument): " + String.join(",", operations.keySet())
+        + " - default: " + DEFAULT_OPERATION;
     int helpWidth = 500;
 
     HelpFormatter formatter = new HelpFormatter();
@@ -83,28 +180,38 @@ public class Cli {
     } catch (ParseException e) {
       System.out.println(e.getMessage());
 
-      formatter.printHelp(helpText, options);
+      formatter.printHelp(helpText, helpHeader, options, null);
 
       System.exit(1);
     }
 
     if (command.hasOption('h')) {
-      formatter.printHelp(helpText, options);
+      formatter.printHelp(helpText, helpHeader, options, null);
 
       System.exit(0);
     }
 
+    if (! operations.containsKey(operationName)) {
+      System.out.println("Unknown sub-command: " + operationName);
+
+      formatter.printHelp(helpText, helpHeader, options, null);
+
+      System.exit(1);
+    }
+
     if (command.hasOption("V")) {
       ch.qos.logback.classic.Logger logger = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger("org.fhircat.jsonld.cli");
       logger.setLevel(Level.DEBUG);
     }
 
-    Operation operation = new ToRdf();
+    Operation operation = operations.get(operationName).get();
 
     try {
       operation.run(command);
     } catch (Exception e) {
-      System.err.print(e.getMessage());
+      System.err.println(e.getMessage());
+
+      System.exit(1);
     }
   }
 
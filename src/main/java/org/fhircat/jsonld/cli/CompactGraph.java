@@ -0,0 +1,337 @@
+package org.fhircat.jsonld.cli;
+
+import com.apicatalog.rdf.RdfDataset;
+import com.apicatalog.rdf.RdfLiteral;
+import com.apicatalog.rdf.RdfNQuad;
+import com.apicatalog.rdf.RdfValue;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.sparql.graph.GraphReadOnly;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NiceIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+
+/**
+ * A read-only graph holding the triples of one converted resource, for validation and output.
+ *
+ * Nodes are dictionary-encoded; each triple is three 21-bit node ids packed into a <code>long</code>, kept in
+ * three sorted orders (SPO, POS and OSP) so that every <code>find</code> pattern is a binary-searched range.
+ * This takes a fraction of the memory and build time of Jena's default in-memory graph. Nodes are matched
+ * by term equality (so <code>"1"^^xsd:int</code> does not match <code>"01"^^xsd:int</code>).
+ */
+public final class CompactGraph extends GraphBase {
+
+  private static final int ID_BITS = 21;
+
+  private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+  /**
+   * The most distinct nodes a compact graph can hold.
+   */
+  public static final int MAX_NODES = 1 << ID_BITS;
+
+  /**
+   * The most triples certain to fit in a compact graph, as each has at most three distinct nodes.
+   */
+  public static final int MAX_TRIPLES = MAX_NODES / 3;
+
+  private final Node[] nodes;
+
+  private final Map<Node, Integer> ids;
+
+  private final long[] spo;
+
+  private final long[] pos;
+
+  private final long[] osp;
+
+  private CompactGraph(List<Node> nodes, Map<Node, Integer> ids, long[] spo) {
+    this.nodes = nodes.toArray(new Node[0]);
+    this.ids = ids;
+
+    Arrays.sort(spo);
+    this.spo = distinct(spo);
+
+    this.pos = new long[this.spo.length];
+    this.osp = new long[this.spo.length];
+    for (int i = 0; i < this.spo.length; i++) {
+      long s = id(this.spo[i], 0);
+      long p = id(this.spo[i], 1);
+      long o = id(this.spo[i], 2);
+
+      this.pos[i] = pack(p, o, s);
+      this.osp[i] = pack(o, s, p);
+    }
+    Arrays.sort(this.pos);
+    Arrays.sort(this.osp);
+  }
+
+  /**
+   * The triples of a JSON-LD dataset (all graphs merged), with fresh blank nodes.
+   *
+   * @throws IllegalArgumentException if the dataset has more than {@link #MAX_NODES} distinct nodes
+   */
+  public static CompactGraph of(RdfDataset dataset) {
+    Encoder encoder = new Encoder(dataset.size());
+    forEachTriple(dataset, encoder);
+
+    return encoder.build();
+  }
+
+  /**
+   * The triples of several JSON-LD datasets, merged in order, with fresh blank nodes for each dataset.
+   *
+   * @throws IllegalArgumentException if the datasets have more than {@link #MAX_NODES} distinct nodes
+   */
+  public static CompactGraph of(List<RdfDataset> datasets) {
+    Encoder encoder = new Encoder(datasets.stream().mapToInt(RdfDataset::size).sum());
+    datasets.forEach(dataset -> forEachTriple(dataset, encoder));
+
+    return encoder.build();
+  }
+
+  /**
+   * A compact copy of <code>graph</code>.
+   *
+   * @throws IllegalArgumentException if the graph has more than {@link #MAX_NODES} distinct nodes
+   */
+  public static CompactGraph of(Graph graph) {
+    Encoder encoder = new Encoder((int) Math.min(graph.size(), Integer.MAX_VALUE));
+    graph.find().forEachRemaining(encoder);
+
+    return encoder.build();
+  }
+
+  /**
+   * A read-only copy of <code>graph</code>: compact if it has at most {@link #MAX_TRIPLES} triples, or else
+   * <code>graph</code> itself behind a read-only view.
+   */
+  public static Graph readOnly(Graph graph) {
+    return graph.size() <= MAX_TRIPLES ? of(graph) : new GraphReadOnly(graph);
+  }
+
+  /**
+   * Sends the triples of a JSON-LD dataset (all graphs merged) as Jena triples, with fresh blank nodes.
+   */
+  static void forEachTriple(RdfDataset dataset, Consumer<Triple> consumer) {
+    Map<String, Node> blankNodes = Maps.newHashMap();
+
+    for (RdfNQuad quad : dataset.toList()) {
+      consumer.accept(Triple.create(
+          toNode(quad.getSubject(), blankNodes),
+          toNode(quad.getPredicate(), blankNodes),
+          toNode(quad.getObject(), blankNodes)));
+    }
+  }
+
+  private static Node toNode(RdfValue value, Map<String, Node> blankNodes) {
+    if (value.isIRI()) {
+      return NodeFactory.createURI(value.getValue());
+    } else if (value.isBlankNode()) {
+      // Titanium labels restart for every document, so each conversion gets its own blank nodes
+      return blankNodes.computeIfAbsent(value.getValue(), label -> NodeFactory.createBlankNode());
+    }
+
+    RdfLiteral literal = value.asLiteral();
+
+    if (literal.getLanguage().isPresent()) {
+      return NodeFactory.createLiteral(literal.getValue(), literal.getLanguage().get());
+    } else if (literal.getDatatype() == null || XSDDatatype.XSDstring.getURI().equals(literal.getDatatype())) {
+      return NodeFactory.createLiteral(literal.getValue());
+    } else {
+      return NodeFactory.createLiteral(literal.getValue(), TypeMapper.getInstance().getSafeTypeByName(literal.getDatatype()));
+    }
+  }
+
+  private static class Encoder implements Consumer<Triple> {
+    final List<Node> nodes = Lists.newArrayList();
+    final Map<Node, Integer> ids = Maps.newHashMap();
+    long[] spo;
+    int size = 0;
+
+    Encoder(int expectedSize) {
+      this.spo = new long[Math.max(expectedSize, 16)];
+    }
+
+    @Override
+    public void accept(Triple triple) {
+      if (this.size == this.spo.length) {
+        this.spo = Arrays.copyOf(this.spo, this.size * 2);
+      }
+
+      this.spo[this.size++] = pack(this.encode(triple.getSubject()), this.encode(triple.getPredicate()), this.encode(triple.getObject()));
+    }
+
+    private long encode(Node node) {
+      Integer id = this.ids.get(node);
+
+      if (id == null) {
+        if (this.nodes.size() == MAX_NODES) {
+          throw new IllegalArgumentException("Too many nodes for a compact graph (more than " + MAX_NODES + ").");
+        }
+
+        id = this.nodes.size();
+        this.nodes.add(node);
+        this.ids.put(node, id);
+      }
+
+      return id;
+    }
+
+    CompactGraph build() {
+      return new CompactGraph(this.nodes, this.ids, Arrays.copyOf(this.spo, this.size));
+    }
+  }
+
+  @Override
+  protected ExtendedIterator<Triple> graphBaseFind(Triple pattern) {
+    Node s = pattern.getSubject();
+    Node p = pattern.getPredicate();
+    Node o = pattern.getObject();
+
+    long sId = this.lookup(s);
+    long pId = this.lookup(p);
+    long oId = this.lookup(o);
+
+    if (sId == -2 || pId == -2 || oId == -2) {
+      return NiceIterator.emptyIterator();
+    }
+
+    // Pick the order in which the bound positions form a prefix
+    if (sId >= 0) {
+      if (pId < 0 && oId >= 0) {
+        return this.range(this.osp, 2, oId, sId, -1);
+      }
+      return this.range(this.spo, 0, sId, pId, oId);
+    } else if (pId >= 0) {
+      return this.range(this.pos, 1, pId, oId, -1);
+    } else if (oId >= 0) {
+      return this.range(this.osp, 2, oId, -1, -1);
+    } else {
+      return this.range(this.spo, 0, -1, -1, -1);
+    }
+  }
+
+  /**
+   * The id of a concrete node, -1 for a wildcard, or -2 for a node not in the graph.
+   */
+  private long lookup(Node node) {
+    if (node == null || ! node.isConcrete()) {
+      return -1;
+    }
+
+    Integer id = this.ids.get(node);
+
+    return id != null ? id : -2;
+  }
+
+  /**
+   * The triples of <code>index</code> (rotated by <code>rotation</code> from SPO) with the given prefix of ids (-1 ends the prefix).
+   */
+  private ExtendedIterator<Triple> range(long[] index, int rotation, long first, long second, long third) {
+    int from;
+    int to;
+
+    if (first < 0) {
+      from = 0;
+      to = index.length;
+    } else {
+      long low;
+      long width;
+
+      if (second < 0) {
+        low = pack(first, 0, 0);
+        width = 1L << (2 * ID_BITS);
+      } else if (third < 0) {
+        low = pack(first, second, 0);
+        width = 1L << ID_BITS;
+      } else {
+        low = pack(first, second, third);
+        width = 1;
+      }
+
+      from = lowerBound(index, low);
+      to = lowerBound(index, low + width);
+    }
+
+    return WrappedIterator.create(new Iterator<Triple>() {
+      int next = from;
+
+      @Override
+      public boolean hasNext() {
+        return this.next < to;
+      }
+
+      @Override
+      public Triple next() {
+        if (this.next >= to) {
+          throw new NoSuchElementException();
+        }
+
+        long packed = index[this.next++];
+
+        // Undo the rotation: component i of the triple (S, P, O) is at position (i - rotation) mod 3 of the key
+        return Triple.create(
+            nodes[(int) id(packed, (3 - rotation) % 3)],
+            nodes[(int) id(packed, (4 - rotation) % 3)],
+            nodes[(int) id(packed, (5 - rotation) % 3)]);
+      }
+    });
+  }
+
+  @Override
+  protected int graphBaseSize() {
+    return this.spo.length;
+  }
+
+  private static long pack(long first, long second, long third) {
+    return (first << (2 * ID_BITS)) | (second << ID_BITS) | third;
+  }
+
+  private static long id(long packed, int position) {
+    return (packed >>> ((2 - position) * ID_BITS)) & ID_MASK;
+  }
+
+  private static int lowerBound(long[] sorted, long key) {
+    int low = 0;
+    int high = sorted.length;
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+
+      if (sorted[middle] < key) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+
+  private static long[] distinct(long[] sorted) {
+    int size = 0;
+
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[size++] = sorted[i];
+      }
+    }
+
+    return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+  }
+
+}
@@ -0,0 +1,281 @@
+package org.fhircat.jsonld.cli;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A JSON object as a {@link Map}, backed by one small array of alternating keys and values, in insertion order.
+ *
+ * FHIR JSON (and more so the 'pre'-JSON made from it) is mostly objects of a few entries, such as the
+ * <code>{"value": ..., "index": ...}</code> value nodes. A hash map spends a table and an entry object per
+ * entry on these; here an object is two objects, and a lookup is a short scan. Keys read by {@link #MODULE} are
+ * the parser's interned field names, so each distinct key is held once, and compared by identity first.
+ *
+ * Not thread safe, and not meant for large objects: lookups and puts are linear in the number of entries.
+ */
+public final class CompactObject extends AbstractMap<String, Object> {
+
+  /**
+   * Makes Jackson read <code>Map.class</code> values (and their nested objects and arrays) as
+   * {@link CompactObject}s and array lists.
+   */
+  public static final Module MODULE = new SimpleModule("CompactObject")
+      .addDeserializer(Map.class, new Deserializer());
+
+  private static final Object[] EMPTY = new Object[0];
+
+  // key0, value0, key1, value1, ...
+  private Object[] entries;
+
+  private int size;
+
+  public CompactObject() {
+    this.entries = EMPTY;
+  }
+
+  /**
+   * An empty object with room for <code>expectedSize</code> entries, such as 2 for a value node
+   * (<code>value</code> and <code>index</code>).
+   */
+  public CompactObject(int expectedSize) {
+    this.entries = expectedSize > 0 ? new Object[expectedSize * 2] : EMPTY;
+  }
+
+  public CompactObject(Map<String, ?> map) {
+    this(map.size());
+    map.forEach(this::put);
+  }
+
+  private int indexOf(Object key) {
+    for (int i = 0; i < this.size * 2; i += 2) {
+      if (this.entries[i] == key) {
+        return i;
+      }
+    }
+
+    if (key != null) {
+      for (int i = 0; i < this.size * 2; i += 2) {
+        if (key.equals(this.entries[i])) {
+          return i;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return this.indexOf(key) >= 0;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int i = this.indexOf(key);
+
+    return i >= 0 ? this.entries[i + 1] : null;
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    Objects.requireNonNull(key);
+
+    int i = this.indexOf(key);
+    if (i >= 0) {
+      Object previous = this.entries[i + 1];
+      this.entries[i + 1] = value;
+
+      return previous;
+    }
+
+    if (this.size * 2 == this.entries.length) {
+      this.entries = Arrays.copyOf(this.entries, Math.max(4, this.entries.length * 2));
+    }
+
+    this.entries[this.size * 2] = key;
+    this.entries[this.size * 2 + 1] = value;
+    this.size++;
+
+    return null;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    int i = this.indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+
+    Object previous = this.entries[i + 1];
+    this.removeAt(i);
+
+    return previous;
+  }
+
+  private void removeAt(int i) {
+    System.arraycopy(this.entries, i + 2, this.entries, i, this.size * 2 - i - 2);
+    this.size--;
+    this.entries[this.size * 2] = null;
+    this.entries[this.size * 2 + 1] = null;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(this.entries, 0, this.size * 2, null);
+    this.size = 0;
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super String, ? super Object> action) {
+    for (int i = 0; i < this.size * 2; i += 2) {
+      action.accept((String) this.entries[i], this.entries[i + 1]);
+    }
+  }
+
+  /**
+   * The entries, as snapshots of the entries when iterated (which stay valid if the object is changed later).
+   */
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        return new Iterator<>() {
+          private int next = 0;
+          private int last = -1;
+
+          @Override
+          public boolean hasNext() {
+            return this.next < size * 2;
+          }
+
+          @Override
+          public Entry<String, Object> next() {
+            if (! this.hasNext()) {
+              throw new NoSuchElementException();
+            }
+
+            this.last = this.next;
+            this.next += 2;
+
+            return new CompactEntry((String) entries[this.last], entries[this.last + 1]);
+          }
+
+          @Override
+          public void remove() {
+            if (this.last < 0) {
+              throw new IllegalStateException();
+            }
+
+            removeAt(this.last);
+            this.next = this.last;
+            this.last = -1;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private class CompactEntry extends SimpleEntry<String, Object> {
+    CompactEntry(String key, Object value) {
+      super(key, value);
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      put(this.getKey(), value);
+
+      return super.setValue(value);
+    }
+  }
+
+  /**
+   * Reads a JSON object into a {@link CompactObject}, with nested objects as {@link CompactObject}s and arrays
+   * as array lists of their exact size. Scalars are read as Jackson reads them into an untyped map.
+   */
+  private static class Deserializer extends JsonDeserializer<Map> {
+
+    @Override
+    public Map deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+      JsonToken token = parser.currentToken();
+
+      if (token != JsonToken.START_OBJECT && token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+        return (Map) context.handleUnexpectedToken(Map.class, parser);
+      }
+
+      return readObject(parser, context);
+    }
+
+    private static CompactObject readObject(JsonParser parser, DeserializationContext context) throws IOException {
+      CompactObject object = new CompactObject();
+
+      // Positioned on the object's start, or (when called by Jackson) possibly on its first field or its end already
+      String name;
+      switch (parser.currentToken()) {
+        case FIELD_NAME: name = parser.getCurrentName(); break;
+        case END_OBJECT: name = null; break;
+        default: name = parser.nextFieldName();
+      }
+
+      for (; name != null; name = parser.nextFieldName()) {
+        parser.nextToken();
+        object.put(name, readValue(parser, context));
+      }
+
+      return object;
+    }
+
+    private static List<Object> readArray(JsonParser parser, DeserializationContext context) throws IOException {
+      ArrayList<Object> array = new ArrayList<>();
+
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        array.add(readValue(parser, context));
+      }
+      array.trimToSize();
+
+      return array;
+    }
+
+    private static Object readValue(JsonParser parser, DeserializationContext context) throws IOException {
+      switch (parser.currentToken()) {
+        case START_OBJECT: return readObject(parser, context);
+        case START_ARRAY: return readArray(parser, context);
+        case VALUE_STRING: return parser.getText();
+        case VALUE_NUMBER_INT:
+        case VALUE_NUMBER_FLOAT: return parser.getNumberValue();
+        case VALUE_TRUE: return Boolean.TRUE;
+        case VALUE_FALSE: return Boolean.FALSE;
+        case VALUE_NULL: return null;
+        case VALUE_EMBEDDED_OBJECT: return parser.getEmbeddedObject();
+        default: return context.handleUnexpectedToken(Object.class, parser);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,245 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.apache.commons.cli.CommandLine;
+import org.apache.jena.rdf.model.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the same converted corpus through each ShEx validator implementation, and reports per resource type
+ * latency percentiles, throughput, memory use, and the resources on which the implementations disagree.
+ *
+ * The whole corpus is converted (without validation) and held in memory first, so that only validation is measured.
+ * The first validation of each implementation includes loading the schema, and is reported separately.
+ */
+public class CompareShEx extends BaseOperation {
+
+  private static Logger log = LoggerFactory.getLogger(CompareShEx.class);
+
+  // 'java' is currently an alias of 'jena' (see FhirRdfConverter.createValidator), so it is not compared separately
+  private static final List<String> IMPLEMENTATIONS = Lists.newArrayList("scala", "jena");
+
+  private static class Resource {
+    final String name;
+    final String type;
+    final Model model;
+
+    Resource(String name, String type, Model model) {
+      this.name = name;
+      this.type = type;
+      this.model = model;
+    }
+  }
+
+  private static class Outcome {
+    final boolean conforms;
+    final TreeSet<String> results;
+
+    Outcome(boolean conforms, TreeSet<String> results) {
+      this.conforms = conforms;
+      this.results = results;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Outcome && this.conforms == ((Outcome) o).conforms && this.results.equals(((Outcome) o).results);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(conforms, results);
+    }
+
+    @Override
+    public String toString() {
+      return (this.conforms ? "conformant" : "nonconformant") + (this.results.isEmpty() ? "" : " " + this.results);
+    }
+  }
+
+  @Override
+  protected void doRun(File inputFile, File outputFile, CommandLine command) {
+    InputFinder inputs = this.getInputs(inputFile, command, RecordReader::isPlainJson);
+
+    List<InputFinder.Input> found = Lists.newArrayList();
+    try {
+      inputs.forEach(found::add);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+
+    // Resources are named by their relative path, which tells apart same-named files in different directories
+    found.sort(Comparator.comparing(InputFinder.Input::getRelativePath));
+
+    List<File> files = found.stream().map(InputFinder.Input::getFile).collect(Collectors.toList());
+
+    List<Resource> corpus = Lists.newArrayList();
+    try (FhirRdfConverter converter = new FhirRdfConverter(ConverterConfig.defaults()
+        .withFhirServer(command.getOptionValue("fs", "http://hl7.org/fhir/"))
+        .withContextServer(command.getOptionValue("cs", "https://fhircat.org/fhir-r4/original/contexts/"))
+        .withVersionBase(command.getOptionValue("vb", "http://build.fhir.org/")))) {
+      for (InputFinder.Input input : found) {
+        File file = input.getFile();
+
+        try {
+          Model model = converter.convert(converter.readJson(file));
+          corpus.add(new Resource(input.getRelativePath(), FhirRdfConverter.getResourceType(model), model));
+        } catch (Throwable e) {
+          log.warn("Error converting file: " + file.getPath() + ": " + e.getMessage());
+        }
+      }
+    }
+
+    log.info("Comparing ShEx implementations " + IMPLEMENTATIONS + " on " + corpus.size() + " resources");
+
+    Map<String, Map<String, Outcome>> outcomes = Maps.newLinkedHashMap();
+
+    try (PrintStream out = outputFile != null ? new PrintStream(outputFile) : null) {
+      PrintStream report = out != null ? out : System.out;
+
+      // Validate against the schema sliced for the corpus, as a conversion run would
+      Set<String> resourceTypes = this.scanResourceTypes(files);
+
+      for (String implementation : IMPLEMENTATIONS) {
+        outcomes.put(implementation, this.benchmark(implementation, resourceTypes, corpus, report));
+      }
+
+      this.reportDisagreements(corpus, outcomes, report);
+    } catch (FileNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private Map<String, Outcome> benchmark(String implementation, Set<String> resourceTypes, List<Resource> corpus,
+      PrintStream report) {
+    Map<String, Outcome> outcomes = Maps.newLinkedHashMap();
+
+    Validator validator;
+    try {
+      validator = FhirRdfConverter.createValidator(implementation, resourceTypes);
+    } catch (Throwable e) {
+      report.println("Implementation " + implementation + ": not available (" + e + ")");
+      return outcomes;
+    }
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+        ? (com.sun.management.ThreadMXBean) threads : null;
+
+    long heapBefore = usedHeapAfterGc();
+    long allocatedBefore = allocations != null ? allocations.getCurrentThreadAllocatedBytes() : 0;
+
+    Map<String, List<Long>> latencies = Maps.newTreeMap();
+    long firstNanos = -1;
+    long totalNanos = 0;
+
+    for (Resource resource : corpus) {
+      List<ValidationResult> results = Lists.newArrayList();
+
+      long start = System.nanoTime();
+      Outcome outcome;
+      try {
+        boolean conforms = validator.validate(resource.model, results::addAll);
+        outcome = new Outcome(conforms, results.stream()
+            .map(result -> result.getNode() + "@" + result.getShape())
+            .collect(Collectors.toCollection(TreeSet::new)));
+      } catch (Throwable e) {
+        outcome = new Outcome(false, new TreeSet<>(List.of("error: " + e.getMessage())));
+      }
+      long nanos = System.nanoTime() - start;
+
+      outcomes.put(resource.name, outcome);
+
+      if (firstNanos < 0) {
+        firstNanos = nanos;
+      } else {
+        latencies.computeIfAbsent(resource.type, type -> Lists.newArrayList()).add(nanos);
+        totalNanos += nanos;
+      }
+    }
+
+    long allocated = allocations != null ? allocations.getCurrentThreadAllocatedBytes() - allocatedBefore : -1;
+    long retained = usedHeapAfterGc() - heapBefore;
+
+    int timed = Math.max(corpus.size() - 1, 0);
+
+    report.println(String.format("Implementation %s: first validation (including schema load) %.1f ms, %d further resources in %.1f ms (%.1f resources/s)",
+        implementation, firstNanos / 1e6, timed, totalNanos / 1e6, timed > 0 ? timed / (totalNanos / 1e9) : 0));
+    report.println(String.format("  memory: %s allocated per resource, ~%.1f MB retained after the run (schema and caches)",
+        allocated >= 0 && corpus.size() > 0 ? String.format("%.2f MB", allocated / 1e6 / corpus.size()) : "n/a", retained / 1e6));
+
+    for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+      long[] sorted = entry.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+
+      report.println(String.format("  %s: n=%d p50=%.1f ms p90=%.1f ms p99=%.1f ms max=%.1f ms", entry.getKey(), sorted.length,
+          percentile(sorted, 50) / 1e6, percentile(sorted, 90) / 1e6, percentile(sorted, 99) / 1e6, sorted[sorted.length - 1] / 1e6));
+    }
+
+    return outcomes;
+  }
+
+  private void reportDisagreements(List<Resource> corpus, Map<String, Map<String, Outcome>> outcomes, PrintStream report) {
+    // Implementations that failed to load have no outcomes and take no part in the comparison
+    List<String> compared = outcomes.entrySet().stream()
+        .filter(entry -> ! entry.getValue().isEmpty())
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toList());
+
+    if (compared.size() < 2) {
+      report.println("Fewer than two implementations available - nothing to compare.");
+      return;
+    }
+
+    List<String> disagreements = Lists.newArrayList();
+
+    for (Resource resource : corpus) {
+      List<Outcome> resourceOutcomes = compared.stream()
+          .map(implementation -> outcomes.get(implementation).get(resource.name))
+          .collect(Collectors.toList());
+
+      if (resourceOutcomes.stream().distinct().count() > 1) {
+        disagreements.add("  " + resource.name + " (" + resource.type + "): " + compared.stream()
+            .map(implementation -> implementation + "=" + outcomes.get(implementation).get(resource.name))
+            .collect(Collectors.joining(", ")));
+      }
+    }
+
+    report.println(String.format("Agreement (conformance and nonconformant node/shape pairs): %d of %d resources",
+        corpus.size() - disagreements.size(), corpus.size()));
+    disagreements.forEach(report::println);
+  }
+
+  /**
+   * Nearest-rank percentile of sorted values.
+   */
+  private static long percentile(long[] sorted, int percentile) {
+    int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+
+    return sorted[Math.max(rank - 1, 0)];
+  }
+
+  private static long usedHeapAfterGc() {
+    System.gc();
+
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+}
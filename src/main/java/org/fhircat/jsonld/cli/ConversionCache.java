@@ -0,0 +1,178 @@
+package org.fhircat.jsonld.cli;
+
+import com.apicatalog.jsonld.JsonLdError;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.fhircat.jsonld.cli.events.CacheLookupEvent;
+
+/**
+ * Caches converted resources by a hash of their canonical JSON (object keys sorted) and the conversion options.
+ *
+ * The in-memory tier holds up to <code>maxTriples</code> triples. The optional directory tier keeps every
+ * conversion as an RDF-THRIFT file, and can be shared between runs. Only the conversion itself is cached:
+ * validation and serialization run on every resource.
+ */
+public class ConversionCache {
+
+  // Part of every key, so that a change in the conversion can invalidate persisted entries
+  private static final String CACHE_VERSION = "1";
+
+  private final ObjectMapper canonicalMapper = new ObjectMapper()
+      .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  private final Cache<String, Model> cache;
+
+  private final File directory;
+
+  private final AtomicLong directoryHits = new AtomicLong();
+
+  public ConversionCache(long maxTriples, File directory) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxTriples)
+        .weigher((String key, Model model) -> (int) Math.min(model.size(), Integer.MAX_VALUE))
+        .recordStats()
+        .build();
+    this.directory = directory;
+
+    if (directory != null && ! directory.isDirectory() && ! directory.mkdirs()) {
+      throw new UncheckedIOException(new IOException("Cannot create cache directory: " + directory));
+    }
+  }
+
+  /**
+   * The cache key of a (not yet preprocessed) FHIR JSON resource.
+   */
+  public String getKey(Map<String, Object> fhirJson, ConverterConfig config) {
+    Hasher hasher = Hashing.sha256().newHasher()
+        .putString(CACHE_VERSION, StandardCharsets.UTF_8).putByte((byte) 0)
+        .putString(config.getVersionBase(), StandardCharsets.UTF_8).putByte((byte) 0)
+        .putString(config.getContextServer(), StandardCharsets.UTF_8).putByte((byte) 0)
+        .putString(config.getFhirServer(), StandardCharsets.UTF_8).putByte((byte) 0)
+        .putBoolean(config.isAddContext());
+
+    try {
+      hasher.putBytes(this.canonicalMapper.writeValueAsBytes(fhirJson));
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException(e);
+    }
+
+    return hasher.hash().toString();
+  }
+
+  /**
+   * The cached conversion for <code>key</code>, or else the result of <code>convert</code> (which is then cached).
+   * The model is shared, and so read-only (see {@link FhirRdfConverter#convert(InputStream)}).
+   */
+  public Model get(String key, Callable<Model> convert) throws IOException, JsonLdError {
+    CacheLookupEvent event = new CacheLookupEvent();
+    event.outcome = "memory";
+    event.begin();
+
+    Model model;
+    try {
+      model = this.cache.get(key, () -> this.load(key, convert, event));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof JsonLdError) {
+        throw (JsonLdError) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new IllegalStateException(cause);
+      }
+    }
+
+    event.finish(model.size());
+
+    return model;
+  }
+
+  private Model load(String key, Callable<Model> convert, CacheLookupEvent event) throws Exception {
+    if (this.directory == null) {
+      event.outcome = "miss";
+      return convert.call();
+    }
+
+    File file = new File(this.directory, key + ".rt");
+
+    if (file.isFile()) {
+      Graph graph = GraphFactory.createDefaultGraph();
+      try (InputStream in = Files.newInputStream(file.toPath())) {
+        RDFDataMgr.read(graph, in, Lang.RDFTHRIFT);
+      }
+      Model model = ModelFactory.createModelForGraph(CompactGraph.readOnly(graph));
+
+      this.directoryHits.incrementAndGet();
+      event.outcome = "directory";
+
+      return model;
+    }
+
+    event.outcome = "miss";
+    Model model = convert.call();
+
+    // Write aside and move into place, so that concurrent runs never read a partial entry
+    File temporary = File.createTempFile(key, ".tmp", this.directory);
+    try (OutputStream out = Files.newOutputStream(temporary.toPath())) {
+      RDFDataMgr.write(out, model, RDFFormat.RDF_THRIFT);
+    }
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    return model;
+  }
+
+  public long getHits() {
+    return this.cache.stats().hitCount();
+  }
+
+  public long getDirectoryHits() {
+    return this.directoryHits.get();
+  }
+
+  /**
+   * Conversions that were not found in either tier.
+   */
+  public long getMisses() {
+    return this.cache.stats().missCount() - this.directoryHits.get();
+  }
+
+  @Override
+  public String toString() {
+    long lookups = this.cache.stats().requestCount();
+
+    return String.format("Conversion cache: %d lookups, %d memory hits, %d directory hits, %d misses (hit rate %.1f%%)",
+        lookups, this.getHits(), this.getDirectoryHits(), this.getMisses(),
+        lookups > 0 ? 100.0 * (lookups - this.getMisses()) / lookups : 0);
+  }
+
+}
@@ -0,0 +1,67 @@
+package org.fhircat.jsonld.cli;
+
+import org.apache.jena.rdf.model.Model;
+
+/**
+ * The outcome of converting one resource in a stream: either the RDF model, or the error that prevented it.
+ */
+public class ConversionResult {
+
+  private long sequence;
+
+  private long size;
+
+  private Model model;
+
+  private Throwable error;
+
+  private ConversionResult(long sequence, long size, Model model, Throwable error) {
+    this.sequence = sequence;
+    this.size = size;
+    this.model = model;
+    this.error = error;
+  }
+
+  static ConversionResult success(long sequence, long size, Model model) {
+    return new ConversionResult(sequence, size, model, null);
+  }
+
+  static ConversionResult failure(long sequence, long size, Throwable error) {
+    return new ConversionResult(sequence, size, null, error);
+  }
+
+  /**
+   * The zero-based position of the resource in the input stream.
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * The size in bytes of the resource's input record.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  public Model getModel() {
+    return model;
+  }
+
+  public Throwable getError() {
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return "ConversionResult{" +
+        "sequence=" + sequence +
+        ", " + (isSuccess() ? "triples=" + model.size() : "error='" + error.getMessage() + '\'') +
+        '}';
+  }
+
+}
@@ -0,0 +1,211 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Immutable settings for a {@link FhirRdfConverter}.
+ *
+ * Start from {@link #defaults()} and derive changed copies with the <code>with...</code> methods.
+ */
+public final class ConverterConfig {
+
+  public static final Set<String> SHEX_IMPLEMENTATIONS = ImmutableSet.of("scala", "jena", "java");
+
+  private final String versionBase;
+
+  private final String contextServer;
+
+  private final String fhirServer;
+
+  private final boolean addContext;
+
+  private final boolean validate;
+
+  private final String shexImplementation;
+
+  private final ValidationPolicy validationPolicy;
+
+  private final Set<String> shapes;
+
+  private final long cacheSize;
+
+  private final File cacheDirectory;
+
+  private final int bundleParallelism;
+
+  private ConverterConfig(String versionBase, String contextServer, String fhirServer, boolean addContext,
+      boolean validate, String shexImplementation, ValidationPolicy validationPolicy, Set<String> shapes,
+      long cacheSize, File cacheDirectory, int bundleParallelism) {
+    this.versionBase = versionBase;
+    this.contextServer = contextServer;
+    this.fhirServer = fhirServer;
+    this.addContext = addContext;
+    this.validate = validate;
+    this.shexImplementation = shexImplementation;
+    this.validationPolicy = validationPolicy;
+    this.shapes = shapes;
+    this.cacheSize = cacheSize;
+    this.cacheDirectory = cacheDirectory;
+    this.bundleParallelism = bundleParallelism;
+  }
+
+  public static ConverterConfig defaults() {
+    return new ConverterConfig("http://build.fhir.org/", "https://fhircat.org/fhir-r4/original/contexts/",
+        "http://hl7.org/fhir/", true, false, "scala", ValidationPolicy.all(),
+        Collections.emptySet(), 0, null, 1);
+  }
+
+  public ConverterConfig withVersionBase(String versionBase) {
+    return new ConverterConfig(versionBase, this.contextServer, this.fhirServer, this.addContext, this.validate,
+        this.shexImplementation, this.validationPolicy, this.shapes,
+        this.cacheSize, this.cacheDirectory, this.bundleParallelism);
+  }
+
+  public ConverterConfig withContextServer(String contextServer) {
+    return new ConverterConfig(this.versionBase, contextServer, this.fhirServer, this.addContext, this.validate,
+        this.shexImplementation, this.validationPolicy, this.shapes,
+        this.cacheSize, this.cacheDirectory, this.bundleParallelism);
+  }
+
+  public ConverterConfig withFhirServer(String fhirServer) {
+    return new ConverterConfig(this.versionBase, this.contextServer, fhirServer, this.addContext, this.validate,
+        this.shexImplementation, this.validationPolicy, this.shapes,
+        this.cacheSize, this.cacheDirectory, this.bundleParallelism);
+  }
+
+  public ConverterConfig withAddContext(boolean addContext) {
+    return new ConverterConfig(this.versionBase, this.contextServer, this.fhirServer, addContext, this.validate,
+        this.shexImplementation, this.validationPolicy, this.shapes,
+        this.cacheSize, this.cacheDirectory, this.bundleParallelism);
+  }
+
+  public ConverterConfig withValidation(boolean validate) {
+    return new ConverterConfig(this.versionBase, this.contextServer, this.fhirServer, this.addContext, validate,
+        this.shexImplementation, this.validationPolicy, this.shapes,
+        this.cacheSize, this.cacheDirectory, this.bundleParallelism);
+  }
+
+  /**
+   * @param shexImplementation one of {@link #SHEX_IMPLEMENTATIONS}
+   */
+  public ConverterConfig withShExImplementation(String shexImplementation) {
+    if (! SHEX_IMPLEMENTATIONS.contains(shexImplementation)) {
+      throw new IllegalArgumentException("Unknown ShEx implementation: " + shexImplementation);
+    }
+
+    return new ConverterConfig(this.versionBase, this.contextServer, this.fhirServer, this.addContext, this.validate,
+        shexImplementation, this.validationPolicy, this.shapes,
+        this.cacheSize, this.cacheDirectory, this.bundleParallelism);
+  }
+
+  /**
+   * Which resources are validated, when validation is on. Default: all.
+   */
+  public ConverterConfig withValidationPolicy(ValidationPolicy validationPolicy) {
+    return new ConverterConfig(this.versionBase, this.contextServer, this.fhirServer, this.addContext, this.validate,
+        this.shexImplementation, validationPolicy, this.shapes,
+        this.cacheSize, this.cacheDirectory, this.bundleParallelism);
+  }
+
+  /**
+   * The resource types to validate, for a ShEx schema sliced to their shapes (see {@link ShExSchemaSlicer}),
+   * or <code>null</code> to slice it for the types of the resources validated, as they are met (see
+   * {@link SlicingValidator}). Default: empty, for the whole schema.
+   */
+  public ConverterConfig withShapes(Set<String> shapes) {
+    return new ConverterConfig(this.versionBase, this.contextServer, this.fhirServer, this.addContext, this.validate,
+        this.shexImplementation, this.validationPolicy, shapes != null ? Set.copyOf(shapes) : null,
+        this.cacheSize, this.cacheDirectory, this.bundleParallelism);
+  }
+
+  public String getVersionBase() {
+    return versionBase;
+  }
+
+  public String getContextServer() {
+    return contextServer;
+  }
+
+  public String getFhirServer() {
+    return fhirServer;
+  }
+
+  public boolean isAddContext() {
+    return addContext;
+  }
+
+  public boolean isValidate() {
+    return validate;
+  }
+
+  public String getShExImplementation() {
+    return shexImplementation;
+  }
+
+  /**
+   * Caches conversions in memory, up to <code>cacheSize</code> triples, and (if not null) in <code>cacheDirectory</code>,
+   * which can be shared between runs (see {@link ConversionCache}). Default: no cache.
+   */
+  public ConverterConfig withCache(long cacheSize, File cacheDirectory) {
+    return new ConverterConfig(this.versionBase, this.contextServer, this.fhirServer, this.addContext, this.validate,
+        this.shexImplementation, this.validationPolicy, this.shapes, cacheSize, cacheDirectory, this.bundleParallelism);
+  }
+
+  /**
+   * The number of threads converting the entries of a large Bundle in parallel (see {@link BundleSplitter}).
+   * Default: 1, for Bundles converted whole.
+   */
+  public ConverterConfig withBundleParallelism(int bundleParallelism) {
+    if (bundleParallelism < 1) {
+      throw new IllegalArgumentException("Bundle parallelism must be positive.");
+    }
+
+    return new ConverterConfig(this.versionBase, this.contextServer, this.fhirServer, this.addContext, this.validate,
+        this.shexImplementation, this.validationPolicy, this.shapes, this.cacheSize, this.cacheDirectory, bundleParallelism);
+  }
+
+  public ValidationPolicy getValidationPolicy() {
+    return validationPolicy;
+  }
+
+  public Set<String> getShapes() {
+    return shapes;
+  }
+
+  public long getCacheSize() {
+    return cacheSize;
+  }
+
+  public File getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  public int getBundleParallelism() {
+    return bundleParallelism;
+  }
+
+  public boolean isCached() {
+    return cacheSize > 0 || cacheDirectory != null;
+  }
+
+  @Override
+  public String toString() {
+    return "ConverterConfig{" +
+        "versionBase='" + versionBase + '\'' +
+        ", contextServer='" + contextServer + '\'' +
+        ", fhirServer='" + fhirServer + '\'' +
+        ", addContext=" + addContext +
+        ", validate=" + validate +
+        ", shexImplementation='" + shexImplementation + '\'' +
+        ", validationPolicy=" + validationPolicy +
+        ", shapes=" + shapes +
+        ", cacheSize=" + cacheSize +
+        ", cacheDirectory=" + cacheDirectory +
+        ", bundleParallelism=" + bundleParallelism +
+        '}';
+  }
+
+}
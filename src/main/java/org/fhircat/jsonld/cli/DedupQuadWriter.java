@@ -0,0 +1,319 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the resources of a whole run to one sorted N-Quads file without duplicate quads.
+ *
+ * Quads are collected in an in-memory set until it reaches <code>memoryLimit</code> bytes (estimated);
+ * the set is then written to disk as a sorted run. On close, the runs are merged into the output,
+ * dropping duplicates, so memory stays bounded whatever the size of the input.
+ *
+ * Blank nodes are labelled by a hash of the resource they belong to and of their content, so converting
+ * the same resource twice (e.g. a Practitioner included in many Bundles) yields the same quads.
+ */
+public class DedupQuadWriter implements RdfSink {
+
+  private static Logger log = LoggerFactory.getLogger(DedupQuadWriter.class);
+
+  // Rough heap cost of a set entry on top of its characters: String, array header, hash map node and slot
+  private static final int ENTRY_OVERHEAD = 96;
+
+  // Maximum number of runs merged at once, to bound the number of open files
+  private static final int MAX_FAN_IN = 64;
+
+  private final File output;
+
+  private final long memoryLimit;
+
+  private final Path tempDirectory;
+
+  private Set<String> quads = Sets.newHashSet();
+
+  private long quadsBytes = 0;
+
+  private final List<File> runs = Lists.newArrayList();
+
+  private long resourceCount = 0;
+
+  private long quadCount = 0;
+
+  public DedupQuadWriter(File output, long memoryLimit) {
+    this.output = output;
+    this.memoryLimit = memoryLimit;
+
+    try {
+      // Spill next to the output, where there is presumably room for it
+      this.tempDirectory = Files.createTempDirectory(output.getAbsoluteFile().getParentFile().toPath(), "dedup");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public synchronized void load(Model model) {
+    Graph graph = model.getGraph();
+
+    String graphName = FhirRdfConverter.getTreeRoot(model).map(NodeFmtLib::str).orElse(null);
+
+    Map<Node, String> blankNodeLabels = this.getBlankNodeLabels(graph, graphName);
+
+    graph.find().forEachRemaining(triple -> {
+      StringBuilder quad = new StringBuilder()
+          .append(format(triple.getSubject(), blankNodeLabels)).append(' ')
+          .append(format(triple.getPredicate(), blankNodeLabels)).append(' ')
+          .append(format(triple.getObject(), blankNodeLabels)).append(' ');
+
+      if (graphName != null) {
+        quad.append(graphName).append(' ');
+      }
+
+      String line = quad.append('.').toString();
+
+      this.quadCount++;
+
+      if (this.quads.add(line)) {
+        this.quadsBytes += ENTRY_OVERHEAD + 2L * line.length();
+      }
+    });
+
+    this.resourceCount++;
+
+    if (this.quadsBytes >= this.memoryLimit) {
+      this.spill();
+    }
+  }
+
+  @Override
+  public String getFormat() {
+    return "N-QUADS";
+  }
+
+  private static String format(Node node, Map<Node, String> blankNodeLabels) {
+    return node.isBlank() ? "_:" + blankNodeLabels.get(node) : NodeFmtLib.str(node);
+  }
+
+  /**
+   * Labels each blank node with a hash of the graph name and its content (its outgoing triples,
+   * recursively). FHIR RDF blank nodes form trees, so this is well defined; should a graph contain
+   * a blank node cycle, its original labels are kept.
+   */
+  private Map<Node, String> getBlankNodeLabels(Graph graph, String graphName) {
+    Map<Node, String> labels = Maps.newHashMap();
+
+    try {
+      graph.find().forEachRemaining(triple -> {
+        if (triple.getSubject().isBlank()) {
+          this.getContentHash(triple.getSubject(), graph, graphName, labels, Sets.newHashSet());
+        }
+      });
+    } catch (IllegalStateException e) {
+      log.debug("Keeping generated blank node labels: " + e.getMessage());
+
+      labels.clear();
+      graph.find().forEachRemaining(triple -> {
+        for (Node node : new Node[] { triple.getSubject(), triple.getObject() }) {
+          if (node.isBlank()) {
+            labels.put(node, "b" + Hashing.murmur3_128().hashString(node.getBlankNodeLabel(), StandardCharsets.UTF_8));
+          }
+        }
+      });
+    }
+
+    return labels;
+  }
+
+  private String getContentHash(Node node, Graph graph, String graphName, Map<Node, String> labels, Set<Node> visiting) {
+    if (! node.isBlank()) {
+      return NodeFmtLib.str(node);
+    }
+
+    String label = labels.get(node);
+    if (label != null) {
+      return "_:" + label;
+    }
+
+    if (! visiting.add(node)) {
+      throw new IllegalStateException("Blank node cycle in " + graphName);
+    }
+
+    List<String> content = Lists.newArrayList(String.valueOf(graphName));
+    graph.find(node, Node.ANY, Node.ANY).forEachRemaining(triple -> content.add(
+        NodeFmtLib.str(triple.getPredicate()) + " " + this.getContentHash(triple.getObject(), graph, graphName, labels, visiting)));
+    Collections.sort(content);
+
+    visiting.remove(node);
+
+    label = "b" + Hashing.murmur3_128().hashString(String.join("\n", content), StandardCharsets.UTF_8);
+    labels.put(node, label);
+
+    return "_:" + label;
+  }
+
+  private void spill() {
+    if (this.quads.isEmpty()) {
+      return;
+    }
+
+    try {
+      File run = Files.createTempFile(this.tempDirectory, "run", ".nq").toFile();
+
+      try (Writer writer = Files.newBufferedWriter(run.toPath(), StandardCharsets.UTF_8)) {
+        this.writeSorted(writer);
+      }
+
+      this.runs.add(run);
+
+      log.debug("Spilled run " + this.runs.size() + " of " + this.quads.size() + " quads");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    this.quads = Sets.newHashSet();
+    this.quadsBytes = 0;
+  }
+
+  private long writeSorted(Writer writer) throws IOException {
+    List<String> sorted = Lists.newArrayList(this.quads);
+    Collections.sort(sorted);
+
+    for (String quad : sorted) {
+      writer.write(quad);
+      writer.write('\n');
+    }
+
+    return sorted.size();
+  }
+
+  /**
+   * Discards the quads loaded, without writing the output.
+   */
+  @Override
+  public synchronized void abort() {
+    this.quads = Sets.newHashSet();
+    this.deleteTempDirectory();
+  }
+
+  @Override
+  public synchronized void close() {
+    long written;
+
+    try {
+      if (this.runs.isEmpty()) {
+        try (Writer writer = Files.newBufferedWriter(this.output.toPath(), StandardCharsets.UTF_8)) {
+          written = this.writeSorted(writer);
+        }
+      } else {
+        this.spill();
+
+        // Merge in passes of at most MAX_FAN_IN runs
+        while (this.runs.size() > MAX_FAN_IN) {
+          List<File> batch = Lists.newArrayList(this.runs.subList(0, MAX_FAN_IN));
+          this.runs.subList(0, MAX_FAN_IN).clear();
+
+          File merged = Files.createTempFile(this.tempDirectory, "run", ".nq").toFile();
+          merge(batch, merged);
+          this.runs.add(merged);
+        }
+
+        written = merge(this.runs, this.output);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      this.quads = Sets.newHashSet();
+      this.deleteTempDirectory();
+    }
+
+    log.info("Wrote " + written + " unique of " + this.quadCount + " quads from " + this.resourceCount + " resources");
+  }
+
+  /**
+   * Merges sorted runs into <code>target</code>, dropping duplicates, and deletes the runs.
+   *
+   * @return the number of quads written
+   */
+  private static long merge(List<File> runs, File target) throws IOException {
+    List<BufferedReader> readers = Lists.newArrayList();
+    PriorityQueue<Map.Entry<String, BufferedReader>> heads = new PriorityQueue<>(Comparator.comparing(Map.Entry::getKey));
+
+    long written = 0;
+
+    try (BufferedWriter writer = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8)) {
+      for (File run : runs) {
+        BufferedReader reader = Files.newBufferedReader(run.toPath(), StandardCharsets.UTF_8);
+        readers.add(reader);
+
+        String line = reader.readLine();
+        if (line != null) {
+          heads.add(Maps.immutableEntry(line, reader));
+        }
+      }
+
+      String previous = null;
+      while (! heads.isEmpty()) {
+        Map.Entry<String, BufferedReader> head = heads.poll();
+
+        if (! head.getKey().equals(previous)) {
+          writer.write(head.getKey());
+          writer.write('\n');
+          written++;
+
+          previous = head.getKey();
+        }
+
+        String line = head.getValue().readLine();
+        if (line != null) {
+          heads.add(Maps.immutableEntry(line, head.getValue()));
+        }
+      }
+    } finally {
+      for (BufferedReader reader : readers) {
+        reader.close();
+      }
+    }
+
+    runs.forEach(File::delete);
+
+    return written;
+  }
+
+  private void deleteTempDirectory() {
+    this.runs.forEach(File::delete);
+    this.runs.clear();
+
+    File[] remaining = this.tempDirectory.toFile().listFiles();
+    if (remaining != null) {
+      for (File file : remaining) {
+        file.delete();
+      }
+    }
+
+    this.tempDirectory.toFile().delete();
+  }
+
+}
@@ -0,0 +1,489 @@
+package org.fhircat.jsonld.cli;
+
+import com.apicatalog.jsonld.JsonLdError;
+import com.apicatalog.jsonld.JsonLdOptions;
+import com.apicatalog.jsonld.document.Document;
+import com.apicatalog.jsonld.document.JsonDocument;
+import com.apicatalog.jsonld.loader.DocumentLoader;
+import com.apicatalog.jsonld.loader.DocumentLoaderOptions;
+import com.apicatalog.jsonld.loader.HttpLoader;
+import com.apicatalog.jsonld.processor.ToRdfProcessor;
+import com.apicatalog.rdf.RdfDataset;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFOps;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.sparql.graph.GraphReadOnly;
+import org.apache.jena.vocabulary.RDF;
+import org.fhircat.jsonld.cli.events.ContextLoadEvent;
+import org.fhircat.jsonld.cli.events.ConversionEvent;
+import org.fhircat.jsonld.cli.events.JenaLoadEvent;
+import org.fhircat.jsonld.cli.events.JsonLdEvent;
+import org.fhircat.jsonld.cli.events.PreprocessEvent;
+import org.fhircat.jsonld.cli.events.ValidationEvent;
+import org.fhircat.jsonld.cli.events.WriteEvent;
+import org.fhircat.jsonld.cli.exceptions.ShExValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts FHIR JSON resources to RDF, optionally validating the result against the FHIR ShEx schema.
+ *
+ * A converter is immutable and thread-safe: build one per {@link ConverterConfig} and share it.
+ * The JSON-LD context cache, the FHIR metadata and the ShEx schema are shared by all
+ * conversions made through the same instance; concurrent validations draw on a {@link ValidatorPool}.
+ * Close it once done with, to stop the threads that convert the entries of large Bundles.
+ */
+public final class FhirRdfConverter implements AutoCloseable {
+
+  private static Logger log = LoggerFactory.getLogger(FhirRdfConverter.class);
+
+  // Binary encodings are written through Jena's streaming writers rather than Model.write
+  private static final Map<String, RDFFormat> binaryFormats = Maps.newHashMap();
+  static {
+    binaryFormats.put("RDF-THRIFT", RDFFormat.RDF_THRIFT);
+    binaryFormats.put("RDF-PROTO", RDFFormat.RDF_PROTO);
+  }
+
+  // Smaller Bundles are converted whole: splitting them costs more than it saves
+  private static final int MIN_SPLIT_ENTRIES = 16;
+
+  private final ConverterConfig config;
+
+  // Created on the first HTTP context load: setting up its TLS context is a noticeable part of startup,
+  // and is not needed at all with file: contexts, or with every resource from the conversion cache
+  private final Supplier<HttpLoader> loader = Suppliers.memoize(() -> new HttpLoader(HttpClient.newHttpClient()));
+
+  private final Map<URI, Document> cache = Maps.newConcurrentMap();
+
+  private final JsonLdOptions jsonLdOptions;
+
+  private final Preprocess preprocess = new Preprocess();
+
+  private final Validator validator;
+
+  private final ValidationPolicy.Sampler validationSampler;
+
+  private final ValidationReport validationReport = new ValidationReport();
+
+  private final ConversionCache conversionCache;
+
+  // Reads FHIR JSON as compact trees (see CompactObject), which preprocessing transforms in place
+  private final ObjectMapper objectMapper = new ObjectMapper().registerModule(CompactObject.MODULE);
+
+  // Converts the entries of large Bundles in parallel, or null if Bundles are converted whole
+  private final ForkJoinPool bundlePool;
+
+  public FhirRdfConverter(ConverterConfig config) {
+    this.config = config;
+    this.jsonLdOptions = this.createJsonLdOptions();
+    this.validator = config.isValidate() ? createValidator(config) : null;
+    this.validationSampler = config.getValidationPolicy().newSampler();
+    this.conversionCache = config.isCached() ? new ConversionCache(config.getCacheSize(), config.getCacheDirectory()) : null;
+    this.bundlePool = config.getBundleParallelism() > 1 ? new ForkJoinPool(config.getBundleParallelism()) : null;
+  }
+
+  public ConverterConfig getConfig() {
+    return this.config;
+  }
+
+  /**
+   * Stops the threads of the converter. Conversions already started complete; later ones fail.
+   */
+  @Override
+  public void close() {
+    if (this.bundlePool != null) {
+      this.bundlePool.shutdown();
+    }
+  }
+
+  /**
+   * Per resource type validation counts of all conversions so far (empty if validation is off).
+   */
+  public ValidationReport getValidationReport() {
+    return this.validationReport;
+  }
+
+  /**
+   * The conversion cache, or null if not configured.
+   */
+  public ConversionCache getConversionCache() {
+    return this.conversionCache;
+  }
+
+  /**
+   * Converts a FHIR JSON resource to a Jena {@link Model}. The model is read-only (a {@link CompactGraph}, or for
+   * a very large resource a read-only view), and may be shared through the conversion cache: copy it into another
+   * model to modify it.
+   */
+  public Model convert(InputStream fhirJson) throws IOException, JsonLdError {
+    return this.convert(this.readJson(fhirJson));
+  }
+
+  /**
+   * Converts a FHIR JSON resource (as read by {@link #readJson(InputStream)}), through the conversion cache if configured.
+   * Note that <code>fhirJson</code> may be modified in place.
+   */
+  public Model convert(Map<String, Object> fhirJson) throws IOException, JsonLdError {
+    if (this.conversionCache == null) {
+      return this.toModel(this.preprocess(fhirJson));
+    }
+
+    Model model = this.conversionCache.get(this.conversionCache.getKey(fhirJson, this.config),
+        () -> this.toRdf(this.preprocess(fhirJson)));
+
+    if (this.validator != null) {
+      this.validate(model);
+    }
+
+    return model;
+  }
+
+  public Model convert(byte[] fhirJson) throws IOException, JsonLdError {
+    return this.convert(new ByteArrayInputStream(fhirJson));
+  }
+
+  public Model convert(JsonNode fhirJson) throws IOException, JsonLdError {
+    return this.convert(this.objectMapper.convertValue(fhirJson, Map.class));
+  }
+
+  /**
+   * Converts a FHIR JSON resource, sending the resulting triples to <code>sink</code>.
+   */
+  public void convert(InputStream fhirJson, StreamRDF sink) throws IOException, JsonLdError {
+    StreamRDFOps.sendGraphToStream(this.convert(fhirJson).getGraph(), sink);
+  }
+
+  /**
+   * Converts a FHIR JSON resource, writing it to <code>out</code> in <code>outputFormat</code>.
+   */
+  public void convert(InputStream fhirJson, OutputStream out, String outputFormat) throws IOException, JsonLdError {
+    write(this.convert(fhirJson), out, outputFormat);
+  }
+
+  public Map<String, Object> readJson(InputStream fhirJson) throws IOException {
+    return this.objectMapper.readValue(fhirJson, Map.class);
+  }
+
+  /**
+   * Reads a FHIR JSON file (see {@link JsonInput}).
+   */
+  public Map<String, Object> readJson(File fhirJson) throws IOException {
+    return JsonInput.read(this.objectMapper, fhirJson, Map.class);
+  }
+
+  /**
+   * Transforms FHIR JSON into the 'pre'-JSON used as JSON-LD input. Note that <code>fhirJson</code> is modified in place.
+   */
+  public Map<String, Object> preprocess(Map<String, Object> fhirJson) {
+    PreprocessEvent event = new PreprocessEvent();
+    event.begin();
+
+    Map<String, Object> preprocessed = this.preprocess.toR4(
+        fhirJson,
+        this.config.getVersionBase(),
+        this.config.getContextServer(),
+        this.config.getFhirServer(),
+        this.config.isAddContext()
+    );
+
+    event.finish(0);
+
+    return preprocessed;
+  }
+
+  public void writePreprocessed(Map<String, Object> preprocessedJson, OutputStream out, boolean indent) throws IOException {
+    this.preprocess.writeJson(preprocessedJson, out, indent);
+  }
+
+  /**
+   * Runs JSON-LD 'toRdf' on preprocessed JSON, and validates the result if configured to.
+   *
+   * @throws ShExValidationException if the result does not pass ShEx validation
+   */
+  public Model toModel(Map<String, Object> preprocessedJson) throws IOException, JsonLdError {
+    Model model = this.toRdf(preprocessedJson);
+
+    if (this.validator != null) {
+      this.validate(model);
+    }
+
+    return model;
+  }
+
+  private Model toRdf(Map<String, Object> preprocessedJson) throws IOException, JsonLdError {
+    long time = System.currentTimeMillis();
+    log.debug("Starting JSONLD");
+    JsonLdEvent jsonLdEvent = new JsonLdEvent();
+    jsonLdEvent.begin();
+    List<RdfDataset> datasets = this.jsonLdToRdf(preprocessedJson);
+    int size = datasets.stream().mapToInt(RdfDataset::size).sum();
+    jsonLdEvent.finish(size);
+    log.debug("Done JSONLD " + Long.toString(System.currentTimeMillis() - time) + "ms");
+
+    JenaLoadEvent jenaLoadEvent = new JenaLoadEvent();
+    jenaLoadEvent.begin();
+
+    log.debug("Data set size: " + Integer.toString(size));
+
+    // Build the (read-only) graph straight from the dataset, rather than through N-Quads text
+    log.debug("Starting RDF Transform");
+    Graph graph;
+    if (size <= CompactGraph.MAX_TRIPLES) {
+      graph = CompactGraph.of(datasets);
+    } else {
+      Graph all = GraphFactory.createDefaultGraph();
+      for (RdfDataset dataset : datasets) {
+        CompactGraph.forEachTriple(dataset, all::add);
+      }
+      graph = new GraphReadOnly(all);
+    }
+    Model model = ModelFactory.createModelForGraph(graph);
+    log.debug("Done RDF Transform " + Long.toString(System.currentTimeMillis() - time) + "ms");
+    jenaLoadEvent.finish(model.size());
+
+    return model;
+  }
+
+  /**
+   * JSON-LD 'toRdf' of preprocessed JSON: one dataset, or for a large Bundle (with a Bundle pool) the datasets
+   * of its envelope and of each entry (see {@link BundleSplitter}), converted as fork-join tasks.
+   */
+  private List<RdfDataset> jsonLdToRdf(Map<String, Object> preprocessedJson) throws JsonLdError {
+    Optional<List<Map<String, Object>>> documents = this.bundlePool != null
+        ? BundleSplitter.split(preprocessedJson, MIN_SPLIT_ENTRIES)
+        : Optional.empty();
+
+    if (documents.isEmpty()) {
+      return List.of(this.jsonLdToRdfDocument(preprocessedJson));
+    }
+
+    log.debug("Converting " + (documents.get().size() - 1) + " Bundle entries in parallel");
+
+    List<ForkJoinTask<RdfDataset>> tasks = Lists.newArrayList();
+    for (int i = 0; i < documents.get().size(); i++) {
+      Map<String, Object> document = documents.get().get(i);
+      boolean entry = i > 0;
+
+      // Events of the entries are attributed to the input of the Bundle
+      tasks.add(this.bundlePool.submit(ConversionEvent.withInput(() -> {
+        RdfDataset dataset = this.jsonLdToRdfDocument(document);
+        return entry ? BundleSplitter.unwrap(dataset) : dataset;
+      })));
+    }
+
+    // In document order, so that the merged graph does not depend on scheduling
+    List<RdfDataset> datasets = Lists.newArrayListWithCapacity(tasks.size());
+    try {
+      for (ForkJoinTask<RdfDataset> task : tasks) {
+        datasets.add(task.get());
+      }
+    } catch (ExecutionException e) {
+      tasks.forEach(task -> task.cancel(false));
+
+      // Fork-join rethrows a copy of the task's exception, with the original as its cause
+      Throwable cause = e.getCause();
+      if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass()) {
+        cause = cause.getCause();
+      }
+
+      if (cause instanceof JsonLdError) {
+        throw (JsonLdError) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    } catch (InterruptedException e) {
+      tasks.forEach(task -> task.cancel(false));
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+
+    return datasets;
+  }
+
+  private RdfDataset jsonLdToRdfDocument(Map<String, Object> document) throws JsonLdError {
+    // Hand the pre-JSON tree to Titanium as a view (rather than a serialized or copied tree). Calls the processor
+    // directly, as JsonLd.toRdf() starts from default options, whose loaders set up an HTTP client on first use
+    return ToRdfProcessor.toRdf(JsonDocument.of(JsonView.of(document)), this.jsonLdOptions);
+  }
+
+  private void validate(Model model) {
+    String resourceType = getResourceType(model);
+
+    if (! this.validationSampler.select(resourceType, getTreeRoot(model).map(Node::toString).orElse(null), model.size())) {
+      this.validationReport.record(resourceType, false, false);
+      return;
+    }
+
+    List<ValidationResult> errors = Lists.newArrayList();
+
+    ValidationEvent event = new ValidationEvent();
+    event.engine = this.config.getShExImplementation();
+    event.shape = resourceType;
+    event.begin();
+
+    boolean isValid;
+    try {
+      isValid = this.validator.validate(model, errors::addAll);
+    } catch (RuntimeException e) {
+      this.validationReport.record(resourceType, true, false);
+      throw e;
+    } finally {
+      event.errors = errors.size();
+    }
+
+    event.conforms = isValid;
+    event.finish(model.size());
+
+    this.validationReport.record(resourceType, true, isValid);
+
+    if (! isValid) {
+      throw new ShExValidationException("Input does not pass ShEx validation.", errors);
+    }
+  }
+
+  /**
+   * Writes a model to <code>out</code> in one of the Jena formats, or one of the binary RDF-THRIFT/RDF-PROTO formats.
+   */
+  public static void write(Model model, OutputStream out, String outputFormat) {
+    WriteEvent event = new WriteEvent();
+    event.format = outputFormat;
+    event.begin();
+
+    RDFFormat binaryFormat = binaryFormats.get(outputFormat);
+
+    if (outputFormat.equals(HdtWriter.FORMAT)) {
+      HdtWriter.write(model, out, FHIR.FHIR_NS);
+    } else if (binaryFormat != null) {
+      // Stream the triples one by one so the output can be consumed by a streaming reader (RDFDataMgr.parse)
+      StreamRDF stream = StreamRDFWriter.getWriterStream(out, binaryFormat);
+      stream.start();
+      StreamRDFOps.sendGraphToStream(model.getGraph(), stream);
+      stream.finish();
+    } else {
+      model.write(out, outputFormat);
+    }
+
+    event.finish(model.size());
+  }
+
+  /**
+   * The subject of the converted resource, i.e. the node with <code>fhir:nodeRole fhir:treeRoot</code>.
+   */
+  public static Optional<Node> getTreeRoot(Model model) {
+    ResIterator roots = model.listSubjectsWithProperty(
+        model.createProperty(FHIR.NODE_ROLE), model.createResource(FHIR.TREE_ROOT));
+
+    return roots.hasNext() ? Optional.of(roots.next().asNode()) : Optional.empty();
+  }
+
+  /**
+   * The (local) type name of the converted resource, e.g. 'Patient', or 'unknown'.
+   */
+  static String getResourceType(Model model) {
+    return getTreeRoot(model)
+        .flatMap(node -> model.getGraph().find(node, RDF.type.asNode(), Node.ANY).nextOptional())
+        .map(triple -> StringUtils.substringAfterLast(triple.getObject().toString(), "/"))
+        .orElse("unknown");
+  }
+
+  /**
+   * A pool of validators (see {@link ValidatorPool}) on the schema sliced for the configured shapes, or for the
+   * resource types met (see {@link SlicingValidator}).
+   */
+  private static Validator createValidator(ConverterConfig config) {
+    int size = Runtime.getRuntime().availableProcessors();
+
+    if (config.getShapes() == null) {
+      return new SlicingValidator(shapes -> new ValidatorPool(() -> createValidator(config.getShExImplementation(), shapes), size));
+    }
+
+    return new ValidatorPool(() -> createValidator(config.getShExImplementation(), config.getShapes()), size);
+  }
+
+  static Validator createValidator(String shexImplementation, Set<String> shapes) {
+    switch (shexImplementation) {
+      case "java": return new JenaShExValidator(shapes);  // Replace by JavaShExValidator when updated?
+      case "jena": return new JenaShExValidator(shapes);
+      case "scala": return new ScalaShExValidator(shapes);
+      default: throw new IllegalArgumentException("Unknown ShEx implementation: " + shexImplementation);
+    }
+  }
+
+  private JsonLdOptions createJsonLdOptions() {
+    return new JsonLdOptions(new DocumentLoader() {
+
+      // Cached documents are returned without locking, as conversions (and Bundle entries) run concurrently
+      public Document loadDocument(URI url, DocumentLoaderOptions options) throws JsonLdError {
+        Document cached = cache.get(url);
+
+        ContextLoadEvent event = new ContextLoadEvent();
+        event.url = url.toString();
+        event.cached = cached != null;
+        event.begin();
+
+        try {
+          return cached != null ? cached : this.load(url, options);
+        } finally {
+          event.finish(0);
+        }
+      }
+
+      private synchronized Document load(URI url, DocumentLoaderOptions options) throws JsonLdError {
+        if (cache.containsKey(url)) {
+          return cache.get(url);
+        }
+
+        Document document;
+        if (url.getScheme().equals("file")) {
+
+          try (InputStream in = JsonInput.open(new File(url))) {
+            document = JsonDocument.of(in);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+
+          document.setDocumentUrl(url);
+        } else {
+
+          log.debug("Starting HTTP Load:" + url);
+          document = loader.get().loadDocument(url, options);
+          log.debug("Done HTTP Load");
+        }
+
+        cache.put(url, document);
+
+        return document;
+      }
+    });
+  }
+
+}
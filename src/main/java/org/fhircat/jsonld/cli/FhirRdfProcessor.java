@@ -0,0 +1,261 @@
+package org.fhircat.jsonld.cli;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.fhircat.jsonld.cli.events.ConversionEvent;
+
+/**
+ * A {@link Flow.Processor} converting a stream of FHIR JSON resources (one resource per <code>byte[]</code>)
+ * into a stream of per-resource {@link ConversionResult}s.
+ *
+ * At most <code>parallelism</code> resources are requested from upstream and not yet delivered downstream
+ * at any time, which bounds the number of resources in preprocessing, JSON-LD and validation. Conversions
+ * run on the given {@link Executor}. When <code>ordered</code>, results are delivered in input order;
+ * otherwise as soon as they complete. A resource that fails to convert is delivered as a failed result,
+ * and does not terminate the stream.
+ *
+ * Only a single downstream subscriber is supported.
+ */
+public class FhirRdfProcessor implements Flow.Processor<byte[], ConversionResult> {
+
+  private final FhirRdfConverter converter;
+
+  private final Executor executor;
+
+  private final int parallelism;
+
+  private final boolean ordered;
+
+  private volatile Flow.Subscription upstream;
+
+  private volatile Flow.Subscriber<? super ConversionResult> downstream;
+
+  // Completed results waiting for downstream demand (keyed by sequence when ordered)
+  private final Map<Long, ConversionResult> orderedResults = new ConcurrentHashMap<>();
+  private final Queue<ConversionResult> unorderedResults = new ConcurrentLinkedQueue<>();
+
+  private volatile long received = 0;
+
+  private long emitted = 0;
+
+  private final AtomicLong demand = new AtomicLong();
+
+  private final AtomicInteger wip = new AtomicInteger();
+
+  private volatile boolean upstreamDone = false;
+
+  private volatile Throwable upstreamError;
+
+  private volatile boolean cancelled = false;
+
+  // An error that ends the stream (other than from upstream), signalled downstream by the drain loop
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  private boolean terminated = false;
+
+  public FhirRdfProcessor(FhirRdfConverter converter, int parallelism, boolean ordered) {
+    this(converter, ForkJoinPool.commonPool(), parallelism, ordered);
+  }
+
+  public FhirRdfProcessor(FhirRdfConverter converter, Executor executor, int parallelism, boolean ordered) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive.");
+    }
+
+    this.converter = converter;
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.ordered = ordered;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ConversionResult> subscriber) {
+    synchronized (this) {
+      if (this.downstream != null) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+          public void request(long n) { }
+          public void cancel() { }
+        });
+        subscriber.onError(new IllegalStateException("Only a single subscriber is supported."));
+        return;
+      }
+
+      this.downstream = subscriber;
+    }
+
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+        if (n <= 0) {
+          fail(new IllegalArgumentException("Requested a non-positive number of results."));
+          return;
+        }
+
+        demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+        drain();
+      }
+
+      @Override
+      public void cancel() {
+        cancelled = true;
+
+        Flow.Subscription subscription = upstream;
+        if (subscription != null) {
+          subscription.cancel();
+        }
+      }
+    });
+
+    this.drain();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (this.upstream != null) {
+      subscription.cancel();
+      return;
+    }
+
+    this.upstream = subscription;
+
+    if (this.cancelled) {
+      subscription.cancel();
+    } else {
+      subscription.request(this.parallelism);
+    }
+  }
+
+  @Override
+  public void onNext(byte[] resource) {
+    // onNext calls are serial (Reactive Streams rule 1.3)
+    long sequence = this.received++;
+
+    try {
+      this.executor.execute(() -> {
+        ConversionEvent.setInput("record " + (sequence + 1), resource.length);
+
+        ConversionResult result;
+        try {
+          result = ConversionResult.success(sequence, resource.length, this.converter.convert(resource));
+        } catch (Throwable e) {
+          result = ConversionResult.failure(sequence, resource.length, e);
+        } finally {
+          ConversionEvent.clearInput();
+        }
+
+        if (this.ordered) {
+          this.orderedResults.put(sequence, result);
+        } else {
+          this.unorderedResults.add(result);
+        }
+
+        this.drain();
+      });
+    } catch (RejectedExecutionException e) {
+      // The resource would never be delivered, and the stream never end
+      this.fail(e);
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    this.upstreamError = throwable;
+    this.upstreamDone = true;
+    this.drain();
+  }
+
+  @Override
+  public void onComplete() {
+    this.upstreamDone = true;
+    this.drain();
+  }
+
+  /**
+   * Ends the stream with <code>error</code>: cancels upstream, and has the drain loop signal the error downstream
+   * in place of further results.
+   */
+  private void fail(Throwable error) {
+    if (! this.failure.compareAndSet(null, error)) {
+      return;
+    }
+
+    this.cancelled = true;
+
+    Flow.Subscription subscription = this.upstream;
+    if (subscription != null) {
+      subscription.cancel();
+    }
+
+    this.drain();
+  }
+
+  /**
+   * Delivers available results downstream. Serialized by the work-in-progress counter, so that
+   * downstream signals never overlap and the upstream subscription is only used by one thread at a time.
+   */
+  private void drain() {
+    if (this.wip.getAndIncrement() != 0) {
+      return;
+    }
+
+    int missed = 1;
+    do {
+      Flow.Subscriber<? super ConversionResult> subscriber = this.downstream;
+
+      if (subscriber != null && ! this.terminated) {
+        this.emitAvailable(subscriber);
+      }
+
+      missed = this.wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void emitAvailable(Flow.Subscriber<? super ConversionResult> subscriber) {
+    while (! this.cancelled && this.demand.get() > 0) {
+      ConversionResult next = this.ordered ? this.orderedResults.remove(this.emitted) : this.unorderedResults.poll();
+
+      if (next == null) {
+        break;
+      }
+
+      this.emitted++;
+      this.demand.decrementAndGet();
+
+      subscriber.onNext(next);
+
+      // A delivered result frees a slot for the next resource
+      if (! this.upstreamDone) {
+        this.upstream.request(1);
+      }
+    }
+
+    if (this.cancelled) {
+      this.terminated = true;
+      this.orderedResults.clear();
+      this.unorderedResults.clear();
+
+      if (this.failure.get() != null) {
+        subscriber.onError(this.failure.get());
+      }
+    } else if (this.upstreamDone && this.emitted == this.received) {
+      // 'received' is safe to read here: no onNext can follow onComplete/onError
+      this.terminated = true;
+
+      if (this.upstreamError != null) {
+        subscriber.onError(this.upstreamError);
+      } else {
+        subscriber.onComplete();
+      }
+    }
+  }
+
+}
@@ -6,68 +6,33 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.NodeIterator;
-import org.apache.jena.rdf.model.RDFNode;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.vocabulary.RDFS;
 
+/**
+ * Looks up the FHIR types of element paths, in the ontology tables generated at build time (see {@link FhirMetadata}).
+ */
 public class FsvProcessor {
 
-  private Model model;
-
-  FsvProcessor() {
-    Model model = ModelFactory.createDefaultModel();
-    model.read(this.getClass().getClassLoader().getResourceAsStream("fhir-r4/fhir.ttl"), null,
-        "TURTLE");
-
-    this.model = model;
-  }
-
   public String flatPath(List<String> path) {
     return FHIR.FHIR_NS + StringUtils.join(path, ".");
   }
 
   Optional<String> isDate(List<String> path) {
-    return this.traverse(path, Sets.newHashSet(FHIR.DATE, FHIR.TIME, FHIR.DATE_TIME))
-        .flatMap(node -> Optional.of(node.asResource().getURI()));
+    return this.traverse(path, Sets.newHashSet(FHIR.DATE, FHIR.TIME, FHIR.DATE_TIME));
   }
 
   boolean isCanonical(List<String> path) {
     return this.traverse(path, Sets.newHashSet(FHIR.CANONICAL)).isPresent();
   }
 
-  private Optional<RDFNode> getRange(List<String> path) {
-    String dotPath = this.flatPath(path);
-
-    Resource dotPathResource = model.createResource(dotPath);
-
-    boolean containsDotPath = this.model.containsResource(dotPathResource);
-
-    if (containsDotPath) {
-
-      NodeIterator rangeObjects = this.model.listObjectsOfProperty(dotPathResource, RDFS.range);
-
-      if (rangeObjects.hasNext()) {
-        RDFNode range = rangeObjects.next();
-
-        if (rangeObjects.hasNext()) {
-          throw new RuntimeException("Too many ranges found.");
-        }
-
-        return Optional.of(range);
-      }
-    }
-
-    return Optional.empty();
+  private Optional<String> getRange(List<String> path) {
+    return FhirMetadata.getRange(StringUtils.join(path, "."));
   }
 
-  Optional<RDFNode> traverse(List<String> path, Set<String> targetTypes) {
-    Optional<RDFNode> range = this.getRange(path);
+  Optional<String> traverse(List<String> path, Set<String> targetTypes) {
+    Optional<String> range = this.getRange(path);
 
     if (range.isPresent()) {
-      if (targetTypes.contains(range.get().asResource().getURI())) {
+      if (targetTypes.contains(range.get())) {
         return Optional.of(range.get());
       } else {
         return Optional.empty();
@@ -75,10 +40,10 @@ public class FsvProcessor {
 
     }
 
-    RDFNode pathRange = null;
+    String pathRange = null;
     int i = path.size() - 1;
     for (;i>0;i--) {
-      Optional<RDFNode> newRange = this.getRange(path.subList(0, i));
+      Optional<String> newRange = this.getRange(path.subList(0, i));
 
       if (newRange.isPresent()) {
         pathRange = newRange.get();
@@ -90,7 +55,7 @@ public class FsvProcessor {
       return Optional.empty();
     }
 
-    String rangeName = pathRange.asResource().getLocalName();
+    String rangeName = StringUtils.substringAfterLast(pathRange, pathRange.contains("#") ? "#" : "/");
 
     List<String> recurseList = Lists.newArrayList();
     recurseList.add(rangeName);
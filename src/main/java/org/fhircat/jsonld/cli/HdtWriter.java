@@ -0,0 +1,276 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
+import org.rdfhdt.hdt.exceptions.ParserException;
+import org.rdfhdt.hdt.hdt.HDT;
+import org.rdfhdt.hdt.hdt.HDTManager;
+import org.rdfhdt.hdt.listener.ProgressListener;
+import org.rdfhdt.hdt.options.HDTSpecification;
+import org.rdfhdt.hdt.triples.TripleString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the resources of a whole run to one HDT (Header-Dictionary-Triples) file: a compressed, indexed
+ * RDF file that can be queried in place, without a load step.
+ *
+ * The triples of each resource are handed to the HDT disk generator, which runs on a thread of its own
+ * from the start of the run. It sorts the dictionary and triples in chunks on disk (in a temporary directory
+ * next to the output), so memory stays bounded whatever the size of the run. HDT holds triples only: the
+ * resources' graph names are dropped, as in N-Triples output.
+ */
+public class HdtWriter implements RdfSink {
+
+  private static Logger log = LoggerFactory.getLogger(HdtWriter.class);
+
+  public static final String FORMAT = "HDT";
+
+  // hdt-java options of the disk generator (see HDTOptionsKeys)
+  private static final String LOADER_DISK_LOCATION = "loader.disk.location";
+  private static final String LOADER_DISK_FUTURE_HDT_LOCATION = "loader.disk.futureHDTLocation";
+
+  // Resources converted but not yet taken by the generator; loading blocks beyond this
+  private static final int QUEUE_SIZE = 256;
+
+  // Marks the end of the run in the queue
+  private static final List<TripleString> END = Collections.emptyList();
+
+  private final File output;
+
+  private final Path tempDirectory;
+
+  private final BlockingQueue<List<TripleString>> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+  private final ExecutorService generatorThread = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "hdt-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Future<Long> generator;
+
+  private long resourceCount = 0;
+
+  public HdtWriter(File output, String baseUri) {
+    this.output = output;
+
+    try {
+      // Spill next to the output, where there is presumably room for it
+      this.tempDirectory = Files.createTempDirectory(output.getAbsoluteFile().getParentFile().toPath(), "hdt");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    HDTSpecification spec = new HDTSpecification();
+    spec.set(LOADER_DISK_LOCATION, this.tempDirectory.resolve("work").toString());
+    spec.set(LOADER_DISK_FUTURE_HDT_LOCATION, this.tempDirectory.resolve("future.hdt").toString());
+
+    Iterator<TripleString> triples = new QueueIterator();
+
+    this.generator = this.generatorThread.submit(() -> {
+      try (HDT hdt = HDTManager.generateHDTDisk(triples, baseUri, spec, progress())) {
+        hdt.saveToHDT(output.getPath(), progress());
+
+        return hdt.getTriples().getNumberOfElements();
+      }
+    });
+  }
+
+  @Override
+  public synchronized void load(Model model) {
+    this.put(toTripleStrings(model));
+
+    this.resourceCount++;
+  }
+
+  @Override
+  public String getFormat() {
+    return FORMAT;
+  }
+
+  private void put(List<TripleString> triples) {
+    try {
+      // Stop waiting if the generator has failed, and so will not take any more
+      while (! this.queue.offer(triples, 1, TimeUnit.SECONDS)) {
+        if (this.generator.isDone()) {
+          this.finish();
+          throw new IllegalStateException("HDT generation ended before the end of the run.");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      this.put(END);
+
+      long written = this.finish();
+
+      log.info("Wrote " + written + " triples from " + this.resourceCount + " resources to " + this.output.getPath());
+    } finally {
+      this.generatorThread.shutdownNow();
+      deleteRecursively(this.tempDirectory.toFile());
+    }
+  }
+
+  /**
+   * Stops the generator and deletes its temporary files. The output is left untouched: the generator only writes
+   * it once it has taken the end of the run.
+   */
+  @Override
+  public synchronized void abort() {
+    this.generator.cancel(true);
+    this.generatorThread.shutdownNow();
+
+    try {
+      // Let it stop before deleting the files it works in
+      this.generatorThread.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      deleteRecursively(this.tempDirectory.toFile());
+    }
+
+    log.info("Discarded HDT output after " + this.resourceCount + " resources: " + this.output.getPath());
+  }
+
+  /**
+   * Waits for the generator to finish, and returns the number of triples written.
+   */
+  private long finish() {
+    try {
+      return this.generator.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw new UncheckedIOException((IOException) e.getCause());
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException("Error writing HDT: " + this.output.getPath(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes one model as an HDT file, built in memory.
+   */
+  public static void write(Model model, OutputStream out, String baseUri) {
+    try (HDT hdt = HDTManager.generateHDT(toTripleStrings(model).iterator(), baseUri, new HDTSpecification(), progress())) {
+      hdt.saveToHDT(out, progress());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (ParserException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static List<TripleString> toTripleStrings(Model model) {
+    List<TripleString> triples = Lists.newArrayListWithCapacity((int) Math.min(model.size(), Integer.MAX_VALUE));
+    model.getGraph().find().forEachRemaining(triple -> triples.add(new TripleString(
+        format(triple.getSubject()), format(triple.getPredicate()), format(triple.getObject()))));
+
+    return triples;
+  }
+
+  /**
+   * A node as HDT writes it in its dictionary: IRIs without brackets, literals as in N-Triples but unescaped.
+   */
+  private static String format(Node node) {
+    if (node.isURI()) {
+      return node.getURI();
+    } else if (node.isBlank()) {
+      return "_:" + node.getBlankNodeLabel();
+    }
+
+    String literal = '"' + node.getLiteralLexicalForm() + '"';
+
+    if (! node.getLiteralLanguage().isEmpty()) {
+      return literal + "@" + node.getLiteralLanguage();
+    } else if (node.getLiteralDatatypeURI() == null || node.getLiteralDatatypeURI().equals(XSDDatatype.XSDstring.getURI())) {
+      return literal;
+    } else {
+      return literal + "^^<" + node.getLiteralDatatypeURI() + ">";
+    }
+  }
+
+  private static ProgressListener progress() {
+    return (level, message) -> log.trace(String.format("%.0f%% %s", level, message));
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+
+    file.delete();
+  }
+
+  /**
+   * The triples of the resources loaded, in order, as the generator takes them; ends at {@link #END}.
+   */
+  private class QueueIterator implements Iterator<TripleString> {
+    private Iterator<TripleString> current = Collections.emptyIterator();
+
+    private boolean ended = false;
+
+    @Override
+    public boolean hasNext() {
+      while (! this.current.hasNext() && ! this.ended) {
+        List<TripleString> next;
+        try {
+          next = queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
+
+        if (next == END) {
+          this.ended = true;
+        } else {
+          this.current = next.iterator();
+        }
+      }
+
+      return this.current.hasNext();
+    }
+
+    @Override
+    public TripleString next() {
+      if (! this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      return this.current.next();
+    }
+  }
+
+}
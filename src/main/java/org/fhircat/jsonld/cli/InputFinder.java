@@ -0,0 +1,273 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.Lists;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the input files of a run, and passes each one on as soon as it is found, so that processing starts
+ * while a large tree is still being walked, and the files are never all listed at once.
+ *
+ * The input is a file, a directory (walked recursively), or a manifest: <code>@paths.txt</code> lists input files
+ * or directories one per line (blank lines and lines starting with <code>#</code> are skipped), and
+ * <code>@-</code> reads the list from standard input. Files found in directories, or listed, are those of a
+ * supported type that match an include glob (if any) and no exclude glob. A glob is matched against the file name,
+ * or, if it has a <code>/</code>, against the path relative to the directory walked. Directories matching an
+ * exclude glob are not walked.
+ *
+ * Each file is passed on with the relative path to name its outputs after: its path in the input directory, or in
+ * a directory listed in the manifest, under that directory's path as listed. Listed paths are taken as they are if
+ * relative (within the working directory), and otherwise from the root of the file system.
+ */
+public class InputFinder {
+
+  private static Logger log = LoggerFactory.getLogger(InputFinder.class);
+
+  private static final String MANIFEST_PREFIX = "@";
+
+  private static final String STDIN = "-";
+
+  /**
+   * Receives the files found.
+   */
+  @FunctionalInterface
+  public interface FileConsumer {
+    void accept(Input input) throws IOException, InterruptedException;
+  }
+
+  /**
+   * An input file found, with the relative path to name its outputs after.
+   */
+  public static final class Input {
+
+    private final File file;
+
+    private final String relativePath;
+
+    public Input(File file, String relativePath) {
+      this.file = file;
+      this.relativePath = relativePath;
+    }
+
+    public File getFile() {
+      return this.file;
+    }
+
+    public String getRelativePath() {
+      return this.relativePath;
+    }
+
+    @Override
+    public String toString() {
+      return this.file.getPath();
+    }
+  }
+
+  private final File input;
+
+  private final Predicate<String> supported;
+
+  private final List<Glob> includes;
+
+  private final List<Glob> excludes;
+
+  /**
+   * @param supported whether a file name is of a supported type
+   * @throws java.util.regex.PatternSyntaxException if a glob is invalid
+   */
+  public InputFinder(File input, Predicate<String> supported, List<String> includes, List<String> excludes) {
+    this.input = input;
+    this.supported = supported;
+    this.includes = Glob.compile(includes);
+    this.excludes = Glob.compile(excludes);
+  }
+
+  public static boolean isManifest(File input) {
+    return input.getPath().startsWith(MANIFEST_PREFIX);
+  }
+
+  /**
+   * The manifest file, or <code>-</code> for standard input.
+   */
+  public static String getManifest(File input) {
+    return input.getPath().substring(MANIFEST_PREFIX.length());
+  }
+
+  /**
+   * Whether the input is a single file, rather than a directory or a manifest.
+   */
+  public boolean isSingleFile() {
+    return ! isManifest(this.input) && ! this.input.isDirectory();
+  }
+
+  /**
+   * Whether the input is a manifest.
+   */
+  public boolean isList() {
+    return isManifest(this.input);
+  }
+
+  /**
+   * Whether the input paths are read from standard input (and so can only be found once).
+   */
+  public boolean readsStandardInput() {
+    return isManifest(this.input) && getManifest(this.input).equals(STDIN);
+  }
+
+  /**
+   * Passes each input file to <code>files</code>, in the order found, on the calling thread. Unreadable
+   * directories are skipped.
+   */
+  public void forEach(FileConsumer files) throws IOException, InterruptedException {
+    if (! isManifest(this.input)) {
+      if (this.input.isDirectory()) {
+        this.walk(this.input.toPath(), null, files);
+      } else {
+        files.accept(new Input(this.input, this.input.getName()));
+      }
+      return;
+    }
+
+    String manifest = getManifest(this.input);
+
+    BufferedReader reader = new BufferedReader(manifest.equals(STDIN)
+        ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+        : Files.newBufferedReader(new File(manifest).toPath(), StandardCharsets.UTF_8));
+
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+
+        Path listed = new File(line).toPath();
+        if (Files.isDirectory(listed)) {
+          this.walk(listed, getListedPath(listed), files);
+        } else if (this.accepts(listed)) {
+          files.accept(new Input(listed.toFile(), getListedPath(listed).toString()));
+        }
+      }
+    } finally {
+      if (! manifest.equals(STDIN)) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * The path of a listed file or directory to name outputs after: as listed if it is relative and within the working
+   * directory, or else its absolute path without the file system root.
+   */
+  private static Path getListedPath(Path listed) {
+    Path normalized = listed.normalize();
+
+    if (! normalized.isAbsolute() && ! normalized.startsWith("..")) {
+      return normalized;
+    }
+
+    Path absolute = listed.toAbsolutePath().normalize();
+
+    return absolute.getRoot().relativize(absolute);
+  }
+
+  /**
+   * Walks <code>root</code>, passing its files on with their path in it, under <code>prefix</code> if there is one.
+   */
+  private void walk(Path root, Path prefix, FileConsumer files) throws IOException, InterruptedException {
+    try {
+      Files.walkFileTree(root, new SimpleFileVisitor<>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+          return ! directory.equals(root) && matchesAny(excludes, root.relativize(directory))
+              ? FileVisitResult.SKIP_SUBTREE
+              : FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+          Path relativePath = root.relativize(file);
+
+          if (attributes.isRegularFile() && accepts(relativePath)) {
+            try {
+              files.accept(new Input(file.toFile(), (prefix != null ? prefix.resolve(relativePath) : relativePath).toString()));
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new InterruptedIOException();
+            }
+          }
+
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          log.warn("Skipping unreadable input: " + file + ": " + e.getMessage());
+
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (InterruptedIOException e) {
+      throw new InterruptedException();
+    }
+  }
+
+  private boolean accepts(Path path) {
+    return this.supported.test(path.getFileName().toString())
+        && (this.includes.isEmpty() || matchesAny(this.includes, path))
+        && ! matchesAny(this.excludes, path);
+  }
+
+  private static boolean matchesAny(List<Glob> globs, Path path) {
+    for (Glob glob : globs) {
+      if (glob.matches(path)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static class Glob {
+
+    private final PathMatcher matcher;
+
+    // Matched against the file name only, as it has no directory part
+    private final boolean byName;
+
+    Glob(String glob) {
+      this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+      this.byName = ! glob.contains("/");
+    }
+
+    static List<Glob> compile(List<String> globs) {
+      List<Glob> compiled = Lists.newArrayList();
+      for (String glob : globs) {
+        compiled.add(new Glob(glob));
+      }
+
+      return compiled;
+    }
+
+    boolean matches(Path path) {
+      return this.matcher.matches(this.byName ? path.getFileName() : path);
+    }
+  }
+
+}
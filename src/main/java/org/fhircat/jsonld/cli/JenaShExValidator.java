@@ -3,6 +3,7 @@ package org.fhircat.jsonld.cli;
 import com.google.common.collect.Lists;
 
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import org.apache.jena.rdf.model.Model;
@@ -10,20 +11,32 @@ import org.apache.jena.shex.*;
 
 /**
  * A ShEx validator for FHIR.
+ *
+ * The parsed schema (whole, or sliced for the given resource types - see {@link ShExSchemaSlicer}) is immutable
+ * and shared by the instances created for the latest resource types (see {@link LatestSchema}); Jena's
+ * validator keeps its state per call, so an instance may be used by several threads.
  */
 public class JenaShExValidator extends BaseShExValidator {
 
-  private static ShexSchema schema;
+  private static final LatestSchema<ShexSchema> latest = new LatestSchema<>();
+
+  private volatile ShexSchema schema;
 
   public JenaShExValidator() { }
 
-  synchronized void lazyInit() {
-    if (schema == null) {
-      try {
-        Shex.readSchema(this.getClass().getClassLoader().getResource("fhir-r4/fhir-r4.shex").toString());
-      } catch (Exception e) {
-        throw new IllegalStateException("Problem loading FHIR ShEx schema.", e);
-      }
+  public JenaShExValidator(Set<String> resourceTypes) {
+    super(resourceTypes);
+  }
+
+  void lazyInit() {
+    if (this.schema == null) {
+      this.schema = latest.get(this.getResourceTypes(), types -> {
+        try {
+          return Shex.schemaFromString(ShExSchemaSlicer.getSchema(types));
+        } catch (Exception e) {
+          throw new IllegalStateException("Problem loading FHIR ShEx schema.", e);
+        }
+      });
     }
   }
 
@@ -31,7 +44,7 @@ public class JenaShExValidator extends BaseShExValidator {
   protected boolean doValidate(String focusNode, String shapeLabel, Model dataGraph, Consumer<List<ValidationResult>> errorHandler) {
     String shapeMapStr = "<" + focusNode + ">@<" + shapeLabel + ">" ;
     ShexMap shapeMap = Shex.shapeMapFromString(shapeMapStr,"");
-    ShexReport report = ShexValidator.get().validate(dataGraph.getGraph(), schema, shapeMap);
+    ShexReport report = ShexValidator.get().validate(dataGraph.getGraph(), this.schema, shapeMap);
     boolean result = report.conforms();
 
     if (! result) {
@@ -0,0 +1,81 @@
+package org.fhircat.jsonld.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads JSON files as bytes, so that Jackson parses them with its UTF-8 byte parser (JSON is UTF-8, whatever
+ * the platform default charset).
+ *
+ * Files up to {@link #POOLED_LIMIT} bytes are read whole into a byte buffer reused by the thread, and parsed
+ * from there. Larger files are streamed from their {@link FileChannel}, so they are never held in memory as bytes.
+ */
+public final class JsonInput {
+
+  /**
+   * The largest file read into a pooled buffer (and the largest buffer kept per thread).
+   */
+  public static final int POOLED_LIMIT = 4 * 1024 * 1024;
+
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+
+  private JsonInput() { }
+
+  /**
+   * Parses a JSON file.
+   */
+  public static <T> T read(ObjectMapper objectMapper, File file, Class<T> type) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+
+      if (size > POOLED_LIMIT) {
+        return objectMapper.readValue(Channels.newInputStream(channel), type);
+      }
+
+      // One byte spare, so that reaching the end of the file does not look like a full buffer
+      byte[] buffer = buffers.get();
+      if (buffer.length <= size) {
+        buffer = new byte[Math.min(Math.max((int) size + 1, buffer.length * 2), POOLED_LIMIT)];
+        buffers.set(buffer);
+      }
+
+      // Read to the end, in case the file changed size since it was opened
+      int length = 0;
+      ByteBuffer target = ByteBuffer.wrap(buffer);
+      while (channel.read(target) != -1) {
+        length = target.position();
+
+        if (! target.hasRemaining()) {
+          if (buffer.length >= POOLED_LIMIT) {
+            // Grew past the pooled limit while reading: stream the rest
+            channel.position(0);
+            return objectMapper.readValue(Channels.newInputStream(channel), type);
+          }
+
+          buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, POOLED_LIMIT));
+          buffers.set(buffer);
+          target = ByteBuffer.wrap(buffer, length, buffer.length - length);
+        }
+      }
+
+      return objectMapper.readValue(buffer, 0, length, type);
+    }
+  }
+
+  /**
+   * A byte stream of a file, backed by its {@link FileChannel}. To be closed by the caller.
+   */
+  public static InputStream open(File file) throws IOException {
+    return Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+  }
+
+}
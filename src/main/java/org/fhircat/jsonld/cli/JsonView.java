@@ -0,0 +1,306 @@
+package org.fhircat.jsonld.cli;
+
+import jakarta.json.JsonArray;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import jakarta.json.spi.JsonProvider;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only Jakarta JSON view of a JSON tree of maps, lists and scalars, such as the pre-JSON that
+ * {@link Preprocess} makes of {@link CompactObject}s, so that it can be handed to the JSON-LD processor
+ * without first being copied into Jakarta JSON objects.
+ *
+ * Nested objects and arrays are wrapped, and scalars converted, as they are read; nothing is held on to. The tree
+ * must not be changed while it is viewed.
+ */
+final class JsonView {
+
+  // JsonProvider.provider() looks the provider up again on every call
+  private static final JsonProvider PROVIDER = JsonProvider.provider();
+
+  private JsonView() { }
+
+  static JsonObject of(Map<String, Object> object) {
+    return new ObjectView(object);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static JsonValue toJsonValue(Object value) {
+    if (value == null) {
+      return JsonValue.NULL;
+    } else if (value instanceof Map) {
+      return new ObjectView((Map<String, Object>) value);
+    } else if (value instanceof List) {
+      return new ArrayView((List<Object>) value);
+    } else if (value instanceof String) {
+      return PROVIDER.createValue((String) value);
+    } else if (value instanceof Boolean) {
+      return (Boolean) value ? JsonValue.TRUE : JsonValue.FALSE;
+    } else if (value instanceof Integer) {
+      return PROVIDER.createValue((Integer) value);
+    } else if (value instanceof Long) {
+      return PROVIDER.createValue((Long) value);
+    } else if (value instanceof BigInteger) {
+      return PROVIDER.createValue((BigInteger) value);
+    } else if (value instanceof BigDecimal) {
+      return PROVIDER.createValue((BigDecimal) value);
+    } else if (value instanceof Number) {
+      return PROVIDER.createValue(((Number) value).doubleValue());
+    } else if (value instanceof JsonValue) {
+      return (JsonValue) value;
+    }
+
+    throw new IllegalArgumentException("Not a JSON value: " + value.getClass().getName());
+  }
+
+  private static final class ObjectView extends AbstractMap<String, JsonValue> implements JsonObject {
+
+    private final Map<String, Object> object;
+
+    ObjectView(Map<String, Object> object) {
+      this.object = object;
+    }
+
+    @Override
+    public ValueType getValueType() {
+      return ValueType.OBJECT;
+    }
+
+    @Override
+    public int size() {
+      return this.object.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return this.object.containsKey(key);
+    }
+
+    @Override
+    public JsonValue get(Object key) {
+      return this.object.containsKey(key) ? toJsonValue(this.object.get(key)) : null;
+    }
+
+    @Override
+    public Set<String> keySet() {
+      return this.object.keySet();
+    }
+
+    @Override
+    public Set<Entry<String, JsonValue>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, JsonValue>> iterator() {
+          Iterator<Entry<String, Object>> entries = object.entrySet().iterator();
+
+          return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+              return entries.hasNext();
+            }
+
+            @Override
+            public Entry<String, JsonValue> next() {
+              Entry<String, Object> entry = entries.next();
+
+              return new SimpleImmutableEntry<>(entry.getKey(), toJsonValue(entry.getValue()));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return object.size();
+        }
+      };
+    }
+
+    @Override
+    public JsonArray getJsonArray(String name) {
+      return (JsonArray) this.get(name);
+    }
+
+    @Override
+    public JsonObject getJsonObject(String name) {
+      return (JsonObject) this.get(name);
+    }
+
+    @Override
+    public JsonNumber getJsonNumber(String name) {
+      return (JsonNumber) this.get(name);
+    }
+
+    @Override
+    public JsonString getJsonString(String name) {
+      return (JsonString) this.get(name);
+    }
+
+    @Override
+    public String getString(String name) {
+      return this.getJsonString(name).getString();
+    }
+
+    @Override
+    public String getString(String name, String defaultValue) {
+      JsonValue value = this.get(name);
+
+      return value instanceof JsonString ? ((JsonString) value).getString() : defaultValue;
+    }
+
+    @Override
+    public int getInt(String name) {
+      return this.getJsonNumber(name).intValue();
+    }
+
+    @Override
+    public int getInt(String name, int defaultValue) {
+      JsonValue value = this.get(name);
+
+      return value instanceof JsonNumber ? ((JsonNumber) value).intValue() : defaultValue;
+    }
+
+    @Override
+    public boolean getBoolean(String name) {
+      JsonValue value = this.get(name);
+
+      if (value == null) {
+        throw new NullPointerException();
+      } else if (value == JsonValue.TRUE || value == JsonValue.FALSE) {
+        return value == JsonValue.TRUE;
+      }
+      throw new ClassCastException();
+    }
+
+    @Override
+    public boolean getBoolean(String name, boolean defaultValue) {
+      JsonValue value = this.get(name);
+
+      return value == JsonValue.TRUE || value == JsonValue.FALSE ? value == JsonValue.TRUE : defaultValue;
+    }
+
+    @Override
+    public boolean isNull(String name) {
+      return this.get(name).equals(JsonValue.NULL);
+    }
+
+    @Override
+    public String toString() {
+      // Only for messages: copies the object
+      return PROVIDER.createObjectBuilder(this).build().toString();
+    }
+  }
+
+  private static final class ArrayView extends AbstractList<JsonValue> implements JsonArray {
+
+    private final List<Object> array;
+
+    ArrayView(List<Object> array) {
+      this.array = array;
+    }
+
+    @Override
+    public ValueType getValueType() {
+      return ValueType.ARRAY;
+    }
+
+    @Override
+    public JsonValue get(int index) {
+      return toJsonValue(this.array.get(index));
+    }
+
+    @Override
+    public int size() {
+      return this.array.size();
+    }
+
+    @Override
+    public JsonObject getJsonObject(int index) {
+      return (JsonObject) this.get(index);
+    }
+
+    @Override
+    public JsonArray getJsonArray(int index) {
+      return (JsonArray) this.get(index);
+    }
+
+    @Override
+    public JsonNumber getJsonNumber(int index) {
+      return (JsonNumber) this.get(index);
+    }
+
+    @Override
+    public JsonString getJsonString(int index) {
+      return (JsonString) this.get(index);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends JsonValue> List<T> getValuesAs(Class<T> type) {
+      return (List<T>) this;
+    }
+
+    @Override
+    public String getString(int index) {
+      return this.getJsonString(index).getString();
+    }
+
+    @Override
+    public String getString(int index, String defaultValue) {
+      JsonValue value = index < this.size() ? this.get(index) : null;
+
+      return value instanceof JsonString ? ((JsonString) value).getString() : defaultValue;
+    }
+
+    @Override
+    public int getInt(int index) {
+      return this.getJsonNumber(index).intValue();
+    }
+
+    @Override
+    public int getInt(int index, int defaultValue) {
+      JsonValue value = index < this.size() ? this.get(index) : null;
+
+      return value instanceof JsonNumber ? ((JsonNumber) value).intValue() : defaultValue;
+    }
+
+    @Override
+    public boolean getBoolean(int index) {
+      JsonValue value = this.get(index);
+
+      if (value == JsonValue.TRUE || value == JsonValue.FALSE) {
+        return value == JsonValue.TRUE;
+      }
+      throw new ClassCastException();
+    }
+
+    @Override
+    public boolean getBoolean(int index, boolean defaultValue) {
+      JsonValue value = index < this.size() ? this.get(index) : null;
+
+      return value == JsonValue.TRUE || value == JsonValue.FALSE ? value == JsonValue.TRUE : defaultValue;
+    }
+
+    @Override
+    public boolean isNull(int index) {
+      return this.get(index).equals(JsonValue.NULL);
+    }
+
+    @Override
+    public String toString() {
+      // Only for messages: copies the array
+      return PROVIDER.createArrayBuilder(this).build().toString();
+    }
+  }
+
+}
@@ -0,0 +1,30 @@
+package org.fhircat.jsonld.cli;
+
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The parsed ShEx schema of the latest resource types asked for (see {@link ShExSchemaSlicer}), shared by the
+ * validators of a pool so that it is parsed once. Only one is kept: the schema of a superseded slice is released
+ * along with its validators.
+ */
+final class LatestSchema<T> {
+
+  private Set<String> resourceTypes;
+
+  private T schema;
+
+  /**
+   * The schema for <code>resourceTypes</code>, parsed with <code>parser</code> unless it was the latest asked for.
+   */
+  synchronized T get(Set<String> resourceTypes, Function<Set<String>, T> parser) {
+    if (this.schema == null || ! this.resourceTypes.equals(resourceTypes)) {
+      this.schema = null;
+      this.schema = parser.apply(resourceTypes);
+      this.resourceTypes = resourceTypes;
+    }
+
+    return this.schema;
+  }
+
+}
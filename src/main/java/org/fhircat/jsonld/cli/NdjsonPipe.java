@@ -0,0 +1,326 @@
+package org.fhircat.jsonld.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.core.Quad;
+import org.fhircat.jsonld.cli.events.ConversionEvent;
+import org.fhircat.jsonld.cli.events.WriteEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts newline-delimited FHIR JSON (one resource per line), or the resources of compressed and archived
+ * input files (see {@link RecordReader}), into a continuous stream of N-Triples or N-Quads, without
+ * buffering the whole input.
+ *
+ * Resources flow through a {@link FhirRdfProcessor}, so at most <code>threads</code> resources are
+ * in flight. Output is flushed every <code>flushEvery</code> resources; with a {@link RdfSink}, resources
+ * are loaded into the sink instead. Resources that fail to convert are reported as one JSON error record
+ * per line on the error stream.
+ */
+public class NdjsonPipe {
+
+  private static Logger log = LoggerFactory.getLogger(NdjsonPipe.class);
+
+  private final FhirRdfConverter converter;
+
+  private final int threads;
+
+  private final boolean ordered;
+
+  private final int flushEvery;
+
+  private final boolean quads;
+
+  private final RdfSink sink;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  // Record names by sequence, for the error records of file inputs
+  private final Map<Long, String> names = new ConcurrentHashMap<>();
+
+  public NdjsonPipe(FhirRdfConverter converter, int threads, boolean ordered, int flushEvery, boolean quads) {
+    this(converter, threads, ordered, flushEvery, quads, null);
+  }
+
+  public NdjsonPipe(FhirRdfConverter converter, int threads, boolean ordered, int flushEvery, boolean quads, RdfSink sink) {
+    this.converter = converter;
+    this.threads = threads;
+    this.ordered = ordered;
+    this.flushEvery = flushEvery;
+    this.quads = quads;
+    this.sink = sink;
+  }
+
+  /**
+   * Converts the lines of <code>in</code>. <code>out</code> may be null if there is a sink.
+   *
+   * @throws IOException if the output could not be written, such as a closed pipe downstream; the run is then
+   *     incomplete, and a sink should be aborted rather than closed. So also for a failed sink, rethrown as is.
+   */
+  public void run(InputStream in, OutputStream out, PrintStream err) throws IOException, InterruptedException {
+    // Lines are split as bytes, and never decoded before parsing
+    this.run(out, err, publisher -> RecordReader.readLines("-", in, (name, resource) -> publisher.submit(resource)));
+  }
+
+  /**
+   * Converts the resources of the input files, reading (and decompressing) up to <code>threads</code> files,
+   * or zip archive entries, in parallel. Files are read as they are found. <code>out</code> may be null if
+   * there is a sink. Fails as {@link #run(InputStream, OutputStream, PrintStream)} does.
+   */
+  public void run(InputFinder inputs, OutputStream out, PrintStream err) throws IOException, InterruptedException {
+    this.run(out, err, publisher -> {
+      long[] sequence = { 0 };
+
+      // Readers take turns to submit, so that a record's sequence is known when it is named
+      RecordReader.RecordConsumer records = (name, resource) -> {
+        synchronized (sequence) {
+          this.names.put(sequence[0]++, name);
+          publisher.submit(resource);
+        }
+      };
+
+      ExecutorService readers = Executors.newFixedThreadPool(this.threads);
+
+      // Bounds the read tasks waiting, as the inputs may be found much faster than they are read
+      Semaphore pending = new Semaphore(this.threads * 2);
+
+      try {
+        inputs.forEach(input -> {
+          List<Callable<Void>> tasks;
+          try {
+            tasks = RecordReader.split(input.getFile(), this.threads, records);
+          } catch (IOException e) {
+            // Such as a corrupt zip archive, whose entries cannot be listed
+            log.warn("Error reading input: " + input + ": " + e.getMessage());
+            log.debug("-> ", e);
+            return;
+          }
+
+          for (Callable<Void> task : tasks) {
+            pending.acquire();
+
+            readers.submit(() -> {
+              try {
+                task.call();
+              } catch (Exception e) {
+                // An unreadable input skips what is left of it, but not the other inputs
+                log.warn("Error reading input: " + input + ": " + e.getMessage());
+                log.debug("-> ", e);
+              } finally {
+                pending.release();
+              }
+            });
+          }
+        });
+
+        readers.shutdown();
+        readers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } finally {
+        readers.shutdownNow();
+      }
+    });
+  }
+
+  @FunctionalInterface
+  private interface Source {
+    void submitTo(SubmissionPublisher<byte[]> publisher) throws IOException, InterruptedException;
+  }
+
+  private void run(OutputStream out, PrintStream err, Source source) throws IOException, InterruptedException {
+    ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+    ExecutorService delivery = Executors.newSingleThreadExecutor();
+
+    ResultWriter writer = new ResultWriter(out, err);
+
+    try {
+      FhirRdfProcessor processor = new FhirRdfProcessor(this.converter, workers, this.threads, this.ordered);
+      processor.subscribe(writer);
+
+      // submit() blocks once the processor stops requesting, which is what bounds the memory used
+      try (SubmissionPublisher<byte[]> publisher = new SubmissionPublisher<>(delivery, this.threads)) {
+        publisher.subscribe(processor);
+
+        source.submitTo(publisher);
+      }
+
+      writer.done.await();
+    } finally {
+      workers.shutdownNow();
+      delivery.shutdownNow();
+    }
+
+    if (writer.error != null) {
+      log.warn("Stream aborted after " + writer.converted + " resources: " + writer.error.getMessage());
+
+      if (writer.error instanceof IOException) {
+        throw (IOException) writer.error;
+      } else if (writer.error instanceof RuntimeException) {
+        throw (RuntimeException) writer.error;
+      } else if (writer.error instanceof Error) {
+        throw (Error) writer.error;
+      }
+      throw new IllegalStateException(writer.error);
+    }
+
+    log.info("Converted " + writer.converted + " resources, " + writer.failed + " failed");
+  }
+
+  private class ResultWriter implements Flow.Subscriber<ConversionResult> {
+
+    private final OutputStream out;
+
+    private final PrintStream err;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // Why the stream ended early, if it did
+    private volatile Throwable error;
+
+    private Flow.Subscription subscription;
+
+    private long converted = 0;
+
+    private long failed = 0;
+
+    private long unflushed = 0;
+
+    ResultWriter(OutputStream out, PrintStream err) {
+      this.out = out;
+      this.err = err;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(threads);
+    }
+
+    @Override
+    public void onNext(ConversionResult result) {
+      String name = names.remove(result.getSequence());
+      ConversionEvent.setInput(name != null ? name : "record " + (result.getSequence() + 1), result.getSize());
+
+      try {
+        if (result.isSuccess()) {
+          if (sink != null) {
+            load(result.getModel());
+          }
+          if (this.out != null) {
+            this.out.write(serialize(result.getModel()));
+          }
+          this.converted++;
+        } else {
+          this.err.println(errorRecord(result, name));
+          this.failed++;
+        }
+
+        if (this.out != null && ++this.unflushed >= flushEvery) {
+          this.out.flush();
+          this.unflushed = 0;
+        }
+      } catch (IOException | RuntimeException e) {
+        // Typically a closed pipe downstream (or a failed sink) -- nothing more can be written
+        this.subscription.cancel();
+        this.onError(e);
+        return;
+      } finally {
+        ConversionEvent.clearInput();
+      }
+
+      this.subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      this.error = throwable;
+      this.done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      try {
+        if (this.out != null) {
+          this.out.flush();
+        }
+      } catch (IOException e) {
+        this.error = e;
+      } finally {
+        this.done.countDown();
+      }
+    }
+  }
+
+  private byte[] serialize(Model model) {
+    WriteEvent event = new WriteEvent();
+    event.format = this.quads ? "N-QUADS" : "N-TRIPLE";
+    event.begin();
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    if (this.quads) {
+      // One named graph per resource, named after its tree root
+      Node graphName = FhirRdfConverter.getTreeRoot(model).orElse(Quad.defaultGraphNodeGenerated);
+
+      StreamRDF stream = StreamRDFLib.writer(buffer);
+      stream.start();
+      model.getGraph().find().forEachRemaining(triple -> stream.quad(Quad.create(graphName, triple)));
+      stream.finish();
+    } else {
+      RDFDataMgr.write(buffer, model, Lang.NTRIPLES);
+    }
+
+    event.finish(model.size());
+
+    return buffer.toByteArray();
+  }
+
+  private void load(Model model) {
+    WriteEvent event = new WriteEvent();
+    event.format = this.sink.getFormat();
+    event.begin();
+
+    this.sink.load(model);
+
+    event.finish(model.size());
+  }
+
+  private String errorRecord(ConversionResult result, String name) {
+    Map<String, Object> record = Maps.newLinkedHashMap();
+    record.put("record", result.getSequence() + 1);
+    if (name != null) {
+      record.put("input", name);
+    }
+    record.put("error", String.valueOf(result.getError().getMessage()));
+
+    try {
+      return this.objectMapper.writeValueAsString(record);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
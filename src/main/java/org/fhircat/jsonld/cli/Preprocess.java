@@ -1,18 +1,21 @@
 package org.fhircat.jsonld.cli;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.net.PercentEscaper;
 import java.io.File;
-import java.io.FileReader;
-import java.util.Arrays;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
@@ -23,11 +26,15 @@ import org.apache.commons.lang3.CharUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.vocabulary.XSD;
+import org.fhircat.jsonld.cli.exceptions.InvalidParameterException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Pre-process raw JSON into a specialized format for JSONLD processing.
+ *
+ * The JSON is transformed in place. Read as {@link CompactObject}s (see {@link CompactObject#MODULE}), the
+ * objects added here are {@link CompactObject}s too, so a resource never turns into a tree of hash maps.
  */
 public class Preprocess extends BaseOperation {
 
@@ -35,7 +42,7 @@ public class Preprocess extends BaseOperation {
 
   private FsvProcessor fsvProcessor = new FsvProcessor();
 
-  private ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+  private ObjectMapper objectMapper = new ObjectMapper().registerModule(CompactObject.MODULE);
 
   private static final String VALUE_TAG = "value";
   private static final String REFERENCE_KEY = "reference";
@@ -59,6 +66,10 @@ public class Preprocess extends BaseOperation {
 
   private static final String CODING_KEY = "coding" ;     //Assumption is that ALL "coding" entries carry concept codes and that all entries are lists
 
+  private static final Set<String> UNWRAPPED_KEYS = Set.of(NODEROLE_KEY, INDEX_KEY, DIV_KEY);
+
+  private static final List<String> CODING_SYSTEM_PATH = List.of("Coding", "system");
+
   private static final int VALUE_KEY_LEN = VALUE_KEY.length();
   private static final String CONTEXT_SERVER = "https://fhircat.org/fhir-r5/original/contexts/";
 
@@ -76,50 +87,113 @@ public class Preprocess extends BaseOperation {
   Pattern timeRe = Pattern.compile("([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)(\\.[0-9]+)?$");
 
 
-  private static final Map<String, String> CODE_SYSTEM_MAP = new HashMap<>();
-
-  static {
-    CODE_SYSTEM_MAP.put("http://snomed.info/sct", "sct");
-    CODE_SYSTEM_MAP.put("http://loinc.org", "loinc");
-  }
-
   @Override
   protected void doRun(File inputFile, File outputFile, CommandLine command) {
-    Consumer<File> fn = (file) -> {
+    boolean indent = isIndented(command, true);
+
+    InputFinder inputs = this.getInputs(inputFile, command, RecordReader::isPlainJson);
+
+    Consumer<InputFinder.Input> fn = (input) -> {
+      File file = input.getFile();
+
       try {
         boolean addContext = command.hasOption("c");
 
-        Map result = this.toR4(this.objectMapper.readValue(new FileReader(file), Map.class),
+        Map result = this.toR4(JsonInput.read(this.objectMapper, file, Map.class),
             command.getOptionValue("vb", "http://build.fhir.org/"),
             command.getOptionValue("cs", "https://fhircat.org/fhir-r5/original/contexts/"),
             command.getOptionValue("fs", "http://hl7.org/fhir/"),
             addContext
         );
 
-        this.objectMapper.writeValue(new File(outputFile, file.getName()), result);
+        if (outputFile == null) {
+          this.writeJson(result, System.out, indent);
+        } else if (outputFile.isDirectory()) {
+          File output = new File(outputFile, input.getRelativePath());
+          output.getParentFile().mkdirs();
+
+          this.writeJson(result, output, indent);
+        } else {
+          this.writeJson(result, outputFile, indent);
+        }
       } catch (Throwable e) {
         log.warn("Error writing file: " + file.getPath(), e);
       }
     };
 
-    if (inputFile.isDirectory()) {
-      if (!outputFile.isDirectory()) {
-        throw new RuntimeException("If the input file is a directory, the output must be as well.");
+    if (! inputs.isSingleFile()) {
+      if (outputFile == null || !outputFile.isDirectory()) {
+        throw new RuntimeException("If the input is a directory or input list, the output must be a directory as well.");
       }
 
-      Arrays.stream(inputFile.listFiles((dir, name) -> name.endsWith(".json"))).forEach(fn);
+      this.forEachFile(inputs, command,
+          Runtime.getRuntime().availableProcessors(), fn);
     } else {
-      fn.accept(inputFile);
+      fn.accept(new InputFinder.Input(inputFile, inputFile.getName()));
+    }
+  }
+
+  static boolean isIndented(CommandLine command, boolean defaultIndent) {
+    String preFormat = command.getOptionValue("preformat");
+
+    if (StringUtils.isBlank(preFormat)) {
+      return defaultIndent;
+    }
+
+    switch (preFormat) {
+      case "indent": return true;
+      case "compact": return false;
+      default: throw new InvalidParameterException("preformat", preFormat, "Please use either `indent` or `compact`.");
     }
   }
 
+  /**
+   * Streams (pre-)JSON to a file through a {@link JsonGenerator}, without building the serialized String.
+   */
+  public void writeJson(Map json, File file, boolean indent) throws IOException {
+    try (OutputStream out = new FileOutputStream(file)) {
+      this.writeJson(json, out, indent);
+    }
+  }
+
+  public void writeJson(Map json, OutputStream out, boolean indent) throws IOException {
+    JsonGenerator generator = this.createGenerator(out, indent);
+    this.writeJson(json, generator);
+    generator.close();
+  }
+
+  /**
+   * Writes (pre-)JSON to <code>generator</code>, leaving the generator open.
+   */
+  public void writeJson(Map json, JsonGenerator generator) throws IOException {
+    this.objectMapper.writeValue(generator, json);
+  }
+
+  /**
+   * A UTF-8 generator on <code>out</code>, which it leaves open when closed (this may be standard out).
+   */
+  public JsonGenerator createGenerator(OutputStream out, boolean indent) throws IOException {
+    JsonGenerator generator = this.objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    if (indent) {
+      generator.useDefaultPrettyPrinter();
+    }
+
+    return generator;
+  }
+
+  /**
+   * Transforms FHIR JSON into 'pre'-JSON in place, in a single traversal: Bundle entry and contained resource ids,
+   * relative ('#') URLs, value wrapping and type arcs are all resolved as each object is visited.
+   *
+   * The result is not emitted during the traversal, as the root's <code>nodeRole</code>, ontology header and context
+   * are only added after it: write it with {@link #writeJson(Map, JsonGenerator)}.
+   */
   public Map toR4(Map fhirJson, String versionBase, String contextServer, String fhirServer, boolean addContext) {
     //# Do the recursive conversion
     String resourceType = (String) fhirJson.get(RESOURCETYPE_KEY); //     # Pick this up before it processed for use in context below
-    dictProcessor(fhirJson, resourceType, Lists.newArrayList(), Maps.newHashMap(), false, contextServer, fhirServer);
-
-    //# Traverse the graph adjusting relative URL's
-    adjustUrls(fhirJson, "");
+    dictProcessor(fhirJson, resourceType, Lists.newArrayList(), Maps.newHashMap(), false, "", contextServer, fhirServer);
 
     //# Add nodeRole
     fhirJson.put("nodeRole", "fhir:treeRoot");
@@ -180,7 +254,8 @@ public class Preprocess extends BaseOperation {
   }
 
   private Map toValue(Object value) {
-    Map valueMap = new HashMap();
+    // Sized for the value and its list index, the most common case
+    Map valueMap = new CompactObject(2);
     valueMap.put(VALUE_TAG, value);
 
     return valueMap;
@@ -225,7 +300,7 @@ public class Preprocess extends BaseOperation {
     }
 
     if (dt != null) {
-      Map typedObj = new HashMap();
+      Map typedObj = new CompactObject(2);
       typedObj.put("@value", dateString);
       typedObj.put("@type", dt.getURI());
       json.put("value", typedObj);
@@ -242,8 +317,8 @@ public class Preprocess extends BaseOperation {
       String systemRoot = stripEnd(system, "/", "#");
 
       String base;
-      if (CODE_SYSTEM_MAP.containsKey(systemRoot)) {
-        base = CODE_SYSTEM_MAP.get(systemRoot) + ":";
+      if (FhirMetadata.CODE_SYSTEM_PREFIXES.containsKey(systemRoot)) {
+        base = FhirMetadata.CODE_SYSTEM_PREFIXES.get(systemRoot) + ":";
       } else {
         base = system + ((system.endsWith("/") || system.endsWith("#")) ? "" : "/");
       }
@@ -263,6 +338,13 @@ public class Preprocess extends BaseOperation {
   }
 
   public Map genReference(String ref, Map refobject, String server, Map<String, String> idMap) {
+    return this.genReference(ref, refobject, server, idMap, "");
+  }
+
+  /**
+   * The link object of a reference, with a local ('#') link resolved against <code>outerUrl</code>.
+   */
+  private Map genReference(String ref, Map refobject, String server, Map<String, String> idMap, String outerUrl) {
     String link;
 
     if (!ref.contains("://") && !ref.startsWith("/")) {
@@ -283,12 +365,12 @@ public class Preprocess extends BaseOperation {
         }
       }
 
-      Map rval = new HashMap();
+      Map rval = new CompactObject(2);
 
       if (idMap.containsKey(link)) {
-        rval.put("@id", idMap.get(link));
+        rval.put("@id", resolve(idMap.get(link), outerUrl));
       } else {
-        rval.put("@id", link);
+        rval.put("@id", resolve(link, outerUrl));
         if (typ != null) {
           rval.put("@type", "fhir:" + typ);
         }
@@ -301,9 +383,11 @@ public class Preprocess extends BaseOperation {
   }
 
   private void addContainedUrls(Map resource, Map<String, String> idMap) {
-    List<Map> containers = (List<Map>) resource.getOrDefault(CONTAINED_KEY, Lists.newArrayList());
+    if (! (resource.get(CONTAINED_KEY) instanceof List)) {
+      return;
+    }
 
-    for (Map container : containers) {
+    for (Map container : (List<Map>) resource.get(CONTAINED_KEY)) {
       String containedId = "#" + container.get(ID_KEY);
       String containedType = (String) resource.get(RESOURCETYPE_KEY);
       idMap.put(containedId, containedType + '/' + resource.get(ID_KEY) + containedId);
@@ -323,9 +407,11 @@ public class Preprocess extends BaseOperation {
 
     Map rval = Maps.newHashMap();
 
-    List<Map> entries = (List<Map>) resource.getOrDefault(BUNDLE_ENTRY, Lists.newArrayList());
+    if (! (resource.get(BUNDLE_ENTRY) instanceof List)) {
+      return rval;
+    }
 
-    for (Map entry : entries) {
+    for (Map entry : (List<Map>) resource.get(BUNDLE_ENTRY)) {
       String fullUrl = (String) entry.get(BUNDLE_ENTRY_FULLURL);
 
       if (fullUrl != null) {
@@ -345,33 +431,55 @@ public class Preprocess extends BaseOperation {
     return rval;
   }
 
-  private void adjustUrls(Object json, String outerUrl) {
-    if (json instanceof Map) {
-      Map map = (Map) json;
-
-      if (map.containsKey("@id")) {
-        String containerId = (String) map.get("@id");
+  /**
+   * Sets the '@id' of an object from its FHIR id, unless already set (as for Bundle entry resources), resolving
+   * a local ('#') id against <code>outerUrl</code>. Returns the URL to resolve the object's own elements against.
+   */
+  private String resolveId(Map container, String containerType, Map<String, String> idMap, boolean inContainer, String outerUrl) {
+    Object id = container.get(ID_KEY);
 
-        if (containerId.startsWith("#")) {
-          containerId = outerUrl + containerId;
-          map.put("@id", containerId);
+    if (! container.containsKey("@id") && container.containsKey(ID_KEY) && ! (id instanceof Map) && ! (id instanceof List)) {
+      String relativeId;
+      if (inContainer || !container.containsKey(RESOURCETYPE_KEY)) {
+        relativeId = "#" + id;
+      } else {
+        if (((String) id).startsWith("#")) {
+          relativeId = (String) id;
+        } else {
+          String innerType = this.localName((String) container.get(RESOURCETYPE_KEY));
+          relativeId = ((innerType == null ? containerType : innerType) + '/' + id);
         }
-
-        outerUrl = containerId;
-      }
-      for (Object value : ((Map) json).values()) {
-        adjustUrls(value, outerUrl);
-      }
-    } else if (json instanceof List) {
-      for (Object entry : (List) json) {
-        adjustUrls(entry, outerUrl);
       }
+
+      container.put("@id", idMap != null ? idMap.getOrDefault(relativeId, relativeId) : relativeId);
+    }
+
+    if (container.containsKey("@id")) {
+      String containerId = resolve((String) container.get("@id"), outerUrl);
+      container.put("@id", containerId);
+
+      return containerId;
     }
+
+    return outerUrl;
+  }
+
+  private static String resolve(String url, String outerUrl) {
+    return url.startsWith("#") ? outerUrl + url : url;
+  }
+
+  /**
+   * The URL that a link placed in <code>container</code> is resolved against.
+   */
+  private static String urlOf(Object container, String outerUrl) {
+    Object id = container instanceof Map ? ((Map) container).get("@id") : null;
+
+    return id instanceof String ? (String) id : outerUrl;
   }
 
   private void mapElement(String elementKey, Object elementValue,
       String containerType, List<String> path, Map container,
-      Map<String, String> idMap, boolean inContainer, String resourceType, String contextServer, String fhirServer) {
+      Map<String, String> idMap, String outerUrl, String resourceType, String contextServer, String fhirServer) {
     if (elementKey.startsWith("@")) { //:  # Ignore JSON-LD components"
       return;
     }
@@ -379,45 +487,26 @@ public class Preprocess extends BaseOperation {
     if (! this.isChoiceElement(elementKey)) {
       path.add(elementKey);
     }
-    if (path.equals(Lists.newArrayList("Coding", "system"))) {
+    if (path.equals(CODING_SYSTEM_PATH)) {
       this.addTypeArc(container);
     }
 
-    String innerType = this.localName((String) container.getOrDefault(RESOURCETYPE_KEY, null));
-
     if (elementValue instanceof Map) { //          # Inner object -- process each element\n"
-      dictProcessor((Map) elementValue, resourceType, path, idMap, false, contextServer, fhirServer);
+      dictProcessor((Map) elementValue, resourceType, path, idMap, false, outerUrl, contextServer, fhirServer);
     } else if (elementValue instanceof List) { //           # List -- process each member individually\n"
-      container.put(elementKey, this.listProcessor(elementKey, (List) elementValue, resourceType, path, idMap, contextServer, fhirServer));
+      container.put(elementKey, this.listProcessor(elementKey, (List) elementValue, resourceType, path, idMap, outerUrl, contextServer, fhirServer));
     } else if (elementKey.equals(RESOURCETYPE_KEY) && elementValue instanceof String && ! ((String) elementValue).startsWith("fhir:")) {
       container.put(elementKey, "fhir:" + elementValue);
       container.put("@context",  contextServer + ((String) elementValue).toLowerCase() + ".context.jsonld");
     } else if (elementKey.equals(ID_KEY)) {
-      String relativeId;
-      if (inContainer || !container.containsKey(RESOURCETYPE_KEY)) {
-        relativeId = "#" + elementValue;
-      } else {
-        if (((String) elementValue).startsWith("#")) {
-          relativeId = (String) elementValue;
-        } else {
-          relativeId = ((innerType == null ? containerType : innerType) + '/' + elementValue);
-        }
-
-      }
-
-      String containerId = idMap != null ? idMap.getOrDefault(relativeId, relativeId) : relativeId;
-
-      if (! container.containsKey("@id")) { //Bundle ids have already been added elsewhere
-        container.put("@id", containerId);
-      }
-
+      // The '@id' was set from the id when the container was entered (see resolveId)
       container.put(elementKey, this.toValue(elementValue));
-    } else if (! Sets.newHashSet(NODEROLE_KEY, INDEX_KEY, DIV_KEY).contains(elementKey)) { //      # Convert most other nodes to value entries
+    } else if (! UNWRAPPED_KEYS.contains(elementKey)) { //      # Convert most other nodes to value entries
       container.put(elementKey, this.toValue(elementValue));
     }
 
     if (! (elementValue instanceof List)) {
-      this.addTypeArcs(elementKey, container.get(elementKey), container, path, contextServer, idMap);
+      this.addTypeArcs(elementKey, container.get(elementKey), container, path, contextServer, idMap, outerUrl);
     }
 
     if (! this.isChoiceElement(elementKey)) {
@@ -425,7 +514,8 @@ public class Preprocess extends BaseOperation {
     }
   }
 
-  private void dictProcessor(Map<String, Object> container, String resourceType, List<String> path, Map<String, String> idMap, boolean inContainer, String contextServer, String fhirServer) {
+  private void dictProcessor(Map<String, Object> container, String resourceType, List<String> path, Map<String, String> idMap,
+      boolean inContainer, String outerUrl, String contextServer, String fhirServer) {
     if (container.containsKey(RESOURCETYPE_KEY)) {
       resourceType = (String) container.get(RESOURCETYPE_KEY);
       path = Lists.newArrayList(resourceType);
@@ -442,13 +532,16 @@ public class Preprocess extends BaseOperation {
     // Add any contained resources to the contained URL map
     this.addContainedUrls(container, idMap);
 
+    // Resolve this object's id first, so that its elements are resolved against it in this same visit
+    outerUrl = this.resolveId(container, resourceType, idMap, inContainer, outerUrl);
+
     // Process each of the elements in the dictionary
     // Note: use keys() and re-look up to prevent losing the JsonObj characteristics of the values
     for (String key : container.keySet().stream().filter(k -> ! ((String) k).startsWith("_")).collect(Collectors.toList())) {
       if (this.isChoiceElement(key)) {
-        mapElement(key, container.get(key), resourceType, Lists.newArrayList(key.substring(VALUE_KEY_LEN)), container, idMap, inContainer, resourceType, contextServer, fhirServer);
+        mapElement(key, container.get(key), resourceType, Lists.newArrayList(key.substring(VALUE_KEY_LEN)), container, idMap, outerUrl, resourceType, contextServer, fhirServer);
       } else {
-        mapElement(key, container.get(key), resourceType, path, container, idMap, inContainer, resourceType, contextServer, fhirServer);
+        mapElement(key, container.get(key), resourceType, path, container, idMap, outerUrl, resourceType, contextServer, fhirServer);
       }
     }
 
@@ -473,16 +566,17 @@ public class Preprocess extends BaseOperation {
         ((Map) container.get(baseKey)).put("extension", ((Map) extValue).get("extension"));
       }
 
-      mapElement(baseKey, extValue, EXTENSION_RESOURCE_TYPE, Lists.newArrayList(EXTENSION_RESOURCE_TYPE), container, idMap, false, resourceType, contextServer, fhirServer);
+      mapElement(baseKey, extValue, EXTENSION_RESOURCE_TYPE, Lists.newArrayList(EXTENSION_RESOURCE_TYPE), container, idMap, outerUrl, resourceType, contextServer, fhirServer);
     }
 
   }
 
-  private List<Object> listProcessor(String listKey, List<Object> listObject, String resourceType, List<String> path, Map<String, String> idMap, String contextServer, String fhirServer) {
+  private List<Object> listProcessor(String listKey, List<Object> listObject, String resourceType, List<String> path,
+      Map<String, String> idMap, String outerUrl, String contextServer, String fhirServer) {
 
     BiFunction<Object, Integer, Object> listElement = ((entry, pos) -> {
       if (entry instanceof Map) {
-        dictProcessor((Map) entry, resourceType, path, idMap, listKey.contains(CONTAINED_KEY), contextServer, fhirServer);
+        dictProcessor((Map) entry, resourceType, path, idMap, listKey.contains(CONTAINED_KEY), outerUrl, contextServer, fhirServer);
         if (((Map) entry).containsKey(INDEX_KEY) && !this.fsvProcessor.flatPath(path)
             .contains("_")) {
           throw new RuntimeException();
@@ -498,14 +592,14 @@ public class Preprocess extends BaseOperation {
       } else {
         entry = this.toValue(entry);
         //addTypeArcs(listKey, entry, entry, path, opts, server, idMap)
-        this.addTypeArcs(listKey, (Map) entry, (Map) entry, path, fhirServer, idMap);
+        this.addTypeArcs(listKey, (Map) entry, (Map) entry, path, fhirServer, idMap, outerUrl);
         ((Map) entry).put("index", pos);
       }
 
       return entry;
     });
 
-    List returnList = Lists.newArrayList();
+    List returnList = new ArrayList(listObject.size());
 
     for (int i = 0; i < listObject.size(); i++) {
       returnList.add(listElement.apply(listObject.get(i), i));
@@ -514,14 +608,16 @@ public class Preprocess extends BaseOperation {
     return returnList;
   }
 
-  private void addTypeArcs(String elementKey, Object container, Map<String, Object> parentContainer, List<String> path, String server, Map<String, String> idMap) {
+  private void addTypeArcs(String elementKey, Object container, Map<String, Object> parentContainer, List<String> path, String server,
+      Map<String, String> idMap, String outerUrl) {
     if (this.fsvProcessor.isCanonical(path)) {
-      ((Map) container).put("fhir:link", this.genReference((String) this.fromValue(container), (Map) container, server, idMap));
+      ((Map) container).put("fhir:link", this.genReference((String) this.fromValue(container), (Map) container, server, idMap,
+          urlOf(container, outerUrl)));
     } else if (elementKey.equals(REFERENCE_KEY)) {
       Object containerValue = this.fromValue(container);
 
       if (containerValue instanceof String) {
-        Map ref = this.genReference((String) containerValue, (Map) container, server, idMap);
+        Map ref = this.genReference((String) containerValue, (Map) container, server, idMap, urlOf(parentContainer, outerUrl));
         parentContainer.put("fhir:link", ref);
       }
     }
@@ -0,0 +1,29 @@
+package org.fhircat.jsonld.cli;
+
+import org.apache.jena.rdf.model.Model;
+
+/**
+ * A destination that collects the converted resources of a whole run (rather than writing one output per input).
+ *
+ * Implementations must accept resources from several threads.
+ */
+public interface RdfSink extends AutoCloseable {
+
+  void load(Model model);
+
+  /**
+   * The name of the output format, for events and logging.
+   */
+  String getFormat();
+
+  @Override
+  void close();
+
+  /**
+   * Ends a run that failed: releases the sink without completing its output. By default, the same as {@link #close()}.
+   */
+  default void abort() {
+    this.close();
+  }
+
+}
@@ -0,0 +1,267 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.Lists;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams FHIR JSON resources out of input files, without decompressing them to disk.
+ *
+ * A <code>.json</code> file holds one resource, a <code>.ndjson</code> file one resource per line. Either may
+ * be compressed (<code>.gz</code>, <code>.zst</code> or <code>.bz2</code>), and any of these may be packed in
+ * <code>.zip</code> or <code>.tar</code> archives (also <code>.tgz</code>, <code>.tar.gz</code>, <code>.tar.zst</code>,
+ * <code>.tar.bz2</code>). Other archive entries are skipped.
+ *
+ * Each resource is passed on as a record of UTF-8 bytes, named after its file, archive entry and line
+ * (e.g. <code>export.zip!/Patient.ndjson.gz#12</code>).
+ */
+public class RecordReader {
+
+  private static Logger log = LoggerFactory.getLogger(RecordReader.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Receives the records read.
+   */
+  @FunctionalInterface
+  public interface RecordConsumer {
+    void accept(String name, byte[] resource) throws InterruptedException;
+  }
+
+  private RecordReader() { }
+
+  /**
+   * Whether the file name is of a supported input.
+   */
+  public static boolean isSupported(String name) {
+    String stripped = stripCompression(name);
+
+    return stripped.endsWith(".json") || stripped.endsWith(".ndjson") || isArchive(name);
+  }
+
+  /**
+   * Whether the file name is of a plain (uncompressed, single resource) JSON file.
+   */
+  public static boolean isPlainJson(String name) {
+    return name.endsWith(".json");
+  }
+
+  /**
+   * Tasks that read all records of <code>file</code>, and that may run in parallel: one for the file, or for a zip
+   * archive up to <code>parallelism</code> tasks, each reading a share of its entries.
+   */
+  public static List<Callable<Void>> split(File file, int parallelism, RecordConsumer records) throws IOException {
+    if (! file.getName().endsWith(".zip") || parallelism < 2) {
+      Callable<Void> task = () -> {
+        try (InputStream in = new FileInputStream(file)) {
+          read(file.getPath(), in, records);
+        }
+        return null;
+      };
+
+      return Lists.newArrayList(task);
+    }
+
+    // Deal the entries out to the tasks, largest first, each to the task with the least (compressed) data so far
+    List<List<String>> shares = Lists.newArrayList();
+    long[] shareSizes = new long[parallelism];
+    for (int i = 0; i < parallelism; i++) {
+      shares.add(Lists.newArrayList());
+    }
+
+    try (ZipFile zip = new ZipFile(file)) {
+      List<ZipEntry> entries = Lists.newArrayList();
+      for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+        ZipEntry entry = e.nextElement();
+        if (! entry.isDirectory()) {
+          entries.add(entry);
+        }
+      }
+      entries.sort(Comparator.comparingLong(ZipEntry::getCompressedSize).reversed());
+
+      for (ZipEntry entry : entries) {
+        int smallest = 0;
+        for (int i = 1; i < parallelism; i++) {
+          if (shareSizes[i] < shareSizes[smallest]) {
+            smallest = i;
+          }
+        }
+
+        shares.get(smallest).add(entry.getName());
+        shareSizes[smallest] += Math.max(entry.getCompressedSize(), 0);
+      }
+    }
+
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (List<String> share : shares) {
+      if (share.isEmpty()) {
+        continue;
+      }
+
+      // Each task has its own ZipFile, so entries inflate concurrently
+      tasks.add(() -> {
+        try (ZipFile zip = new ZipFile(file)) {
+          for (String entryName : share) {
+            try (InputStream in = zip.getInputStream(zip.getEntry(entryName))) {
+              read(file.getPath() + "!/" + entryName, in, records);
+            }
+          }
+        }
+        return null;
+      });
+    }
+
+    return tasks;
+  }
+
+  /**
+   * Reads the records of a stream, whose format is given by <code>name</code>.
+   */
+  public static void read(String name, InputStream in, RecordConsumer records) throws IOException, InterruptedException {
+    if (name.endsWith(".tgz")) {
+      try (InputStream decompressed = new GZIPInputStream(in, BUFFER_SIZE)) {
+        readTar(name, decompressed, records);
+      }
+    } else if (name.endsWith(".gz")) {
+      try (InputStream decompressed = new GZIPInputStream(in, BUFFER_SIZE)) {
+        read(name, stripExtension(name), decompressed, records);
+      }
+    } else if (name.endsWith(".zst")) {
+      try (InputStream decompressed = new ZstdCompressorInputStream(new BufferedInputStream(in, BUFFER_SIZE))) {
+        read(name, stripExtension(name), decompressed, records);
+      }
+    } else if (name.endsWith(".bz2")) {
+      try (InputStream decompressed = new BZip2CompressorInputStream(new BufferedInputStream(in, BUFFER_SIZE))) {
+        read(name, stripExtension(name), decompressed, records);
+      }
+    } else {
+      read(name, name, in, records);
+    }
+  }
+
+  private static void read(String name, String format, InputStream in, RecordConsumer records) throws IOException, InterruptedException {
+    if (format.endsWith(".tar")) {
+      readTar(name, in, records);
+    } else if (format.endsWith(".zip")) {
+      readZip(name, in, records);
+    } else if (format.endsWith(".ndjson")) {
+      readLines(name, in, records);
+    } else if (format.endsWith(".json")) {
+      records.accept(name, in.readAllBytes());
+    } else {
+      log.debug("Skipping unsupported input: " + name);
+    }
+  }
+
+  private static void readTar(String name, InputStream in, RecordConsumer records) throws IOException, InterruptedException {
+    TarArchiveInputStream tar = new TarArchiveInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+
+    TarArchiveEntry entry;
+    while ((entry = tar.getNextTarEntry()) != null) {
+      if (entry.isFile()) {
+        read(name + "!/" + entry.getName(), new EntryInputStream(tar), records);
+      }
+    }
+  }
+
+  private static void readZip(String name, InputStream in, RecordConsumer records) throws IOException, InterruptedException {
+    ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry()) != null) {
+      if (! entry.isDirectory()) {
+        read(name + "!/" + entry.getName(), new EntryInputStream(zip), records);
+      }
+    }
+  }
+
+  /**
+   * One record per non-blank line, split on the bytes (JSON strings cannot hold raw line breaks).
+   */
+  static void readLines(String name, InputStream in, RecordConsumer records) throws IOException, InterruptedException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    long lineNumber = 0;
+    boolean blank = true;
+
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      int start = 0;
+
+      for (int i = 0; i < read; i++) {
+        byte b = buffer[i];
+
+        if (b == '\n') {
+          line.write(buffer, start, i - start);
+          start = i + 1;
+
+          lineNumber++;
+          if (! blank) {
+            records.accept(name + "#" + lineNumber, line.toByteArray());
+          }
+
+          line.reset();
+          blank = true;
+        } else if (blank && b != ' ' && b != '\t' && b != '\r') {
+          blank = false;
+        }
+      }
+
+      line.write(buffer, start, read - start);
+    }
+
+    if (! blank) {
+      records.accept(name + "#" + (lineNumber + 1), line.toByteArray());
+    }
+  }
+
+  private static boolean isArchive(String name) {
+    String stripped = stripCompression(name);
+
+    return name.endsWith(".tgz") || stripped.endsWith(".tar") || stripped.endsWith(".zip");
+  }
+
+  private static String stripCompression(String name) {
+    return name.endsWith(".gz") || name.endsWith(".zst") || name.endsWith(".bz2") ? stripExtension(name) : name;
+  }
+
+  private static String stripExtension(String name) {
+    return name.substring(0, name.lastIndexOf('.'));
+  }
+
+  /**
+   * An archive entry: reads up to the end of the entry, and leaves the archive open on close.
+   */
+  private static class EntryInputStream extends FilterInputStream {
+    EntryInputStream(InputStream archive) {
+      super(archive);
+    }
+
+    @Override
+    public void close() {
+      // The archive is closed by its reader
+    }
+  }
+
+}
@@ -10,20 +10,42 @@ import es.weso.shex.validator.ShExsValidatorBuilder;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
+import org.apache.commons.io.IOUtils;
 import org.apache.jena.rdf.model.Model;
 import scala.Console;
 import es.weso.shex.validator.ShExsValidator;
 
+/**
+ * A ShEx validator for FHIR, based on the Scala ShEx implementation.
+ *
+ * The parsed schema (whole, or sliced for the given resource types - see {@link ShExSchemaSlicer}) is immutable
+ * and shared by the instances created for the latest resource types (see {@link LatestSchema}). A validation
+ * run keeps its state in its own (purely functional) computation, and <code>Console.withOut</code> only rebinds
+ * the output of the calling thread (it is backed by an inheritable thread local), so an instance may be used
+ * by several threads.
+ */
 public class ScalaShExValidator extends BaseShExValidator {
 
-  private static ShExsValidator validator;
+  private static final LatestSchema<ShExsValidator> latest = new LatestSchema<>();
 
-  synchronized void lazyInit() {
-    if (validator == null) {
-      InputStream is = this.getClass().getClassLoader().getResourceAsStream("fhir-r4/fhir-r4.shex");
-      validator = ShExsValidatorBuilder.fromInputStreamSync(is,"ShexC");
+  private volatile ShExsValidator validator;
+
+  public ScalaShExValidator() { }
+
+  public ScalaShExValidator(Set<String> resourceTypes) {
+    super(resourceTypes);
+  }
+
+  void lazyInit() {
+    if (this.validator == null) {
+      this.validator = latest.get(this.getResourceTypes(), types -> {
+        InputStream is = IOUtils.toInputStream(ShExSchemaSlicer.getSchema(types), StandardCharsets.UTF_8);
+        return ShExsValidatorBuilder.fromInputStreamSync(is,"ShexC");
+      });
     }
   }
 
@@ -0,0 +1,207 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reduces the FHIR ShEx schema to the shapes needed to validate a given set of resource types.
+ *
+ * The slice holds the shapes of the resource types and everything they reference, transitively. The
+ * <code>&lt;Resource&gt;</code> and <code>&lt;All&gt;</code> shapes, which are unions of every resource type,
+ * are reduced to the requested resource types, so contained and Bundle entry resources must be of one of
+ * those types too.
+ */
+public final class ShExSchemaSlicer {
+
+  public static final String SCHEMA_RESOURCE = "fhir-r4/fhir-r4.shex";
+
+  // Shapes that are a union of all resource types
+  private static final Set<String> UNION_SHAPES = Sets.newHashSet("Resource", "All");
+
+  private static final String START_SHAPE = "All";
+
+  private static final Pattern REFERENCE_RE = Pattern.compile("@(<[^>\\s]+>|fhirvs:[\\w.\\-]+)");
+
+  private static final Pattern UNION_SEPARATOR_RE = Pattern.compile("\\s+OR\\s*\\n\\s*");
+
+  private static volatile Schema schema;
+
+  private ShExSchemaSlicer() { }
+
+  private static class Declaration {
+    String label;
+    StringBuilder text = new StringBuilder();
+  }
+
+  private static class Schema {
+    String text;
+    String header;
+    Map<String, Declaration> declarations = Maps.newLinkedHashMap();
+  }
+
+  /**
+   * The FHIR ShEx schema (ShExC) sliced for <code>resourceTypes</code>, or the whole schema if empty.
+   *
+   * @throws IllegalArgumentException if a resource type has no shape in the schema
+   */
+  public static String getSchema(Set<String> resourceTypes) {
+    if (resourceTypes.isEmpty()) {
+      return getSchema().text;
+    }
+
+    return slice(resourceTypes);
+  }
+
+  /**
+   * All resource types with a shape in the schema.
+   */
+  public static Set<String> getResourceTypes() {
+    return getUnionMembers(getSchema().declarations.get("Resource")).stream()
+        .map(ShExSchemaSlicer::getLastReference)
+        .map(label -> label.substring(1, label.length() - 1))
+        .collect(Collectors.toCollection(Sets::newTreeSet));
+  }
+
+  private static String slice(Set<String> resourceTypes) {
+    Set<String> unknown = Sets.difference(resourceTypes, getResourceTypes());
+    if (! unknown.isEmpty()) {
+      throw new IllegalArgumentException("No ShEx shapes for resource types: " + unknown);
+    }
+
+    Schema schema = getSchema();
+
+    Set<String> unionMembers = resourceTypes.stream().map(type -> "<" + type + ">").collect(Collectors.toSet());
+
+    // Reference closure from the resource types (and the start shape)
+    Map<String, String> included = Maps.newLinkedHashMap();
+    Deque<String> pending = new ArrayDeque<>(resourceTypes);
+    pending.add(START_SHAPE);
+
+    while (! pending.isEmpty()) {
+      String label = pending.poll();
+      Declaration declaration = schema.declarations.get(label);
+
+      if (declaration == null || included.containsKey(label)) {
+        continue;
+      }
+
+      String text = UNION_SHAPES.contains(label) ? reduceUnion(declaration, unionMembers) : declaration.text.toString();
+      included.put(label, text);
+
+      Matcher references = REFERENCE_RE.matcher(text);
+      while (references.find()) {
+        pending.add(toLabel(references.group(1)));
+      }
+    }
+
+    StringBuilder slice = new StringBuilder(schema.header);
+    schema.declarations.keySet().stream()
+        .filter(included::containsKey)
+        .forEach(label -> slice.append(included.get(label)));
+
+    return slice.toString();
+  }
+
+  private static String reduceUnion(Declaration declaration, Set<String> members) {
+    String text = declaration.text.toString();
+    String labelToken = "<" + declaration.label + ">";
+
+    int bodyStart = text.indexOf("\n" + labelToken) + 1 + labelToken.length();
+
+    List<String> kept = getUnionMembers(declaration).stream()
+        .filter(member -> members.contains(getLastReference(member)))
+        .collect(Collectors.toList());
+
+    return text.substring(0, bodyStart) + " " + String.join(" OR\n\t", kept) + "\n";
+  }
+
+  private static List<String> getUnionMembers(Declaration declaration) {
+    String text = declaration.text.toString();
+    String labelToken = "<" + declaration.label + ">";
+
+    String body = text.substring(text.indexOf("\n" + labelToken) + 1 + labelToken.length()).trim();
+
+    return Lists.newArrayList(UNION_SEPARATOR_RE.split(body));
+  }
+
+  private static String getLastReference(String text) {
+    Matcher references = REFERENCE_RE.matcher(text);
+
+    String last = null;
+    while (references.find()) {
+      last = references.group(1);
+    }
+
+    return last;
+  }
+
+  private static String toLabel(String reference) {
+    return reference.startsWith("<") ? reference.substring(1, reference.length() - 1) : reference;
+  }
+
+  private static Schema getSchema() {
+    if (schema == null) {
+      synchronized (ShExSchemaSlicer.class) {
+        if (schema == null) {
+          try (InputStream in = ShExSchemaSlicer.class.getClassLoader().getResourceAsStream(SCHEMA_RESOURCE)) {
+            schema = parse(IOUtils.toString(in, StandardCharsets.UTF_8));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      }
+    }
+
+    return schema;
+  }
+
+  /**
+   * Splits ShExC text into the header (prefixes, base and start) and its declarations. A declaration starts
+   * at an unindented label, and includes the comment lines just before it.
+   */
+  private static Schema parse(String text) {
+    Schema schema = new Schema();
+    schema.text = text;
+
+    StringBuilder header = new StringBuilder();
+    StringBuilder comments = new StringBuilder();
+    Declaration current = null;
+
+    // Each declaration text starts with a newline, so that its label can be found at a line start
+    for (String line : text.split("\n", -1)) {
+      if (line.startsWith("#")) {
+        comments.append('\n').append(line);
+      } else if (line.startsWith("<") || line.startsWith("fhirvs:")) {
+        current = new Declaration();
+        current.label = line.startsWith("<") ? line.substring(1, line.indexOf('>')) : line.split("\\s")[0];
+        current.text.append(comments).append('\n').append(line);
+        comments.setLength(0);
+
+        schema.declarations.put(current.label, current);
+      } else if (current == null) {
+        header.append(line).append('\n');
+      } else {
+        current.text.append('\n').append(line);
+      }
+    }
+
+    schema.header = header.toString();
+
+    return schema;
+  }
+
+}
@@ -0,0 +1,275 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules inputs of very different sizes over a fixed number of worker threads.
+ *
+ * Inputs are started largest first (longest-processing-time ordering), and each one must be
+ * admitted against a heap budget before it runs. The memory an input needs is estimated as
+ * its size times <code>memoryFactor</code>. An input whose estimate exceeds the whole budget
+ * is clamped to the budget, so it runs alone instead of never running.
+ *
+ * Inputs may also be submitted while the workers run, as they are found (see {@link InputFinder}). Each is then
+ * ordered among those queued at the time, and at most {@link #MAX_QUEUED} are held waiting at once.
+ */
+public class SizeAwareScheduler<T> {
+
+  private static Logger log = LoggerFactory.getLogger(SizeAwareScheduler.class);
+
+  private static final long KB = 1024;
+
+  /**
+   * The most inputs queued once the workers run; submitting more waits for a worker to take one.
+   */
+  public static final int MAX_QUEUED = 10000;
+
+  private final int threads;
+
+  private final int budgetKb;
+
+  private final double memoryFactor;
+
+  private final ToLongFunction<T> sizeOf;
+
+  private final Consumer<T> task;
+
+  private final Semaphore memory;
+
+  private final PriorityBlockingQueue<Item<T>> queue = new PriorityBlockingQueue<>();
+
+  private final Semaphore queueSlots = new Semaphore(MAX_QUEUED);
+
+  private final List<Thread> workers = Lists.newArrayList();
+
+  private final AtomicLong sequence = new AtomicLong();
+
+  private volatile boolean started = false;
+
+  private volatile boolean closed = false;
+
+  // Statistics for the run summary
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong busyNanos = new AtomicLong();
+  private final AtomicLong admissionWaitNanos = new AtomicLong();
+  private final AtomicLong maxAdmissionWaitNanos = new AtomicLong();
+  private final AtomicLong longestTaskNanos = new AtomicLong();
+
+  private long startNanos;
+
+  public SizeAwareScheduler(int threads, long memoryBudget, double memoryFactor, ToLongFunction<T> sizeOf, Consumer<T> task) {
+    this.threads = threads;
+    this.budgetKb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / KB));
+    this.memoryFactor = memoryFactor;
+    this.sizeOf = sizeOf;
+    this.task = task;
+    this.memory = new Semaphore(this.budgetKb, true);
+  }
+
+  /**
+   * Queues an input. Inputs submitted before {@link #start()} are ordered strictly largest first; after it, this
+   * waits while {@link #MAX_QUEUED} inputs are queued.
+   */
+  public void submit(T item) throws InterruptedException {
+    if (this.closed) {
+      throw new IllegalStateException("Scheduler no longer accepts input.");
+    }
+
+    boolean slotted = this.started;
+    if (slotted) {
+      this.queueSlots.acquire();
+    }
+
+    this.queue.add(new Item<>(item, this.sizeOf.applyAsLong(item), this.sequence.getAndIncrement(), slotted));
+  }
+
+  public synchronized void start() {
+    if (this.started) {
+      return;
+    }
+    this.started = true;
+
+    this.startNanos = System.nanoTime();
+
+    for (int i = 0; i < this.threads; i++) {
+      Thread worker = new Thread(this::work, "worker-" + i);
+      worker.setDaemon(true);
+      this.workers.add(worker);
+      worker.start();
+    }
+  }
+
+  /**
+   * Stops accepting input, waits for all queued inputs to finish and logs the run summary.
+   */
+  public Summary awaitCompletion() {
+    this.start();
+    this.closed = true;
+
+    try {
+      for (Thread worker : this.workers) {
+        worker.join();
+      }
+    } catch (InterruptedException e) {
+      this.workers.forEach(Thread::interrupt);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+
+    Summary summary = new Summary(this.threads, this.count.get(), this.bytes.get(),
+        System.nanoTime() - this.startNanos, this.busyNanos.get(), this.longestTaskNanos.get(),
+        this.admissionWaitNanos.get(), this.maxAdmissionWaitNanos.get());
+
+    log.info(summary.toString());
+
+    return summary;
+  }
+
+  private void work() {
+    try {
+      while (true) {
+        Item<T> item = this.queue.poll(100, TimeUnit.MILLISECONDS);
+
+        if (item == null) {
+          if (this.closed && this.queue.isEmpty()) {
+            return;
+          }
+          continue;
+        }
+
+        if (item.slotted) {
+          this.queueSlots.release();
+        }
+
+        this.runAdmitted(item);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runAdmitted(Item<T> item) throws InterruptedException {
+    int permits = this.estimateKb(item.size);
+
+    long waitStart = System.nanoTime();
+    this.memory.acquire(permits);
+    long waited = System.nanoTime() - waitStart;
+
+    this.admissionWaitNanos.addAndGet(waited);
+    this.maxAdmissionWaitNanos.accumulateAndGet(waited, Math::max);
+
+    long taskStart = System.nanoTime();
+    try {
+      this.task.accept(item.value);
+    } catch (Throwable e) {
+      log.warn("Error processing: " + item.value + ": " + e.getMessage());
+      log.debug("-> ", e);
+    } finally {
+      this.memory.release(permits);
+
+      long taskTime = System.nanoTime() - taskStart;
+      this.busyNanos.addAndGet(taskTime);
+      this.longestTaskNanos.accumulateAndGet(taskTime, Math::max);
+      this.count.incrementAndGet();
+      this.bytes.addAndGet(item.size);
+    }
+  }
+
+  private int estimateKb(long size) {
+    long estimate = (long) Math.ceil(size * this.memoryFactor / KB);
+
+    return (int) Math.max(1, Math.min(this.budgetKb, estimate));
+  }
+
+  private static class Item<T> implements Comparable<Item<T>> {
+
+    private final T value;
+
+    private final long size;
+
+    private final long sequence;
+
+    // Holds one of the queue slots, as it was submitted once the workers ran
+    private final boolean slotted;
+
+    Item(T value, long size, long sequence, boolean slotted) {
+      this.value = value;
+      this.size = size;
+      this.sequence = sequence;
+      this.slotted = slotted;
+    }
+
+    @Override
+    public int compareTo(Item<T> other) {
+      // Largest first, then in submission order
+      int bySize = Long.compare(other.size, this.size);
+
+      return bySize != 0 ? bySize : Long.compare(this.sequence, other.sequence);
+    }
+  }
+
+  /**
+   * Summary statistics of a scheduled run.
+   */
+  public static class Summary {
+
+    private final int threads;
+    private final long count;
+    private final long bytes;
+    private final long wallNanos;
+    private final long busyNanos;
+    private final long longestTaskNanos;
+    private final long admissionWaitNanos;
+    private final long maxAdmissionWaitNanos;
+
+    Summary(int threads, long count, long bytes, long wallNanos, long busyNanos, long longestTaskNanos,
+        long admissionWaitNanos, long maxAdmissionWaitNanos) {
+      this.threads = threads;
+      this.count = count;
+      this.bytes = bytes;
+      this.wallNanos = wallNanos;
+      this.busyNanos = busyNanos;
+      this.longestTaskNanos = longestTaskNanos;
+      this.admissionWaitNanos = admissionWaitNanos;
+      this.maxAdmissionWaitNanos = maxAdmissionWaitNanos;
+    }
+
+    /**
+     * The fraction of the available worker time that was spent processing.
+     */
+    public double getUtilization() {
+      return this.wallNanos == 0 ? 0 : (double) this.busyNanos / ((double) this.wallNanos * this.threads);
+    }
+
+    /**
+     * The ratio of the best possible makespan (the longest single input, or the total work
+     * spread evenly over all threads) to the actual wall time. 1.0 is a perfect schedule.
+     */
+    public double getEfficiency() {
+      double lowerBound = Math.max(this.longestTaskNanos, (double) this.busyNanos / this.threads);
+
+      return this.wallNanos == 0 ? 1 : Math.min(1, lowerBound / this.wallNanos);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Processed %d inputs (%d KB) in %d ms on %d threads - "
+              + "utilization: %.1f%%, schedule efficiency: %.1f%%, longest input: %d ms, "
+              + "heap admission wait: %d ms total / %d ms max",
+          this.count, this.bytes / KB, TimeUnit.NANOSECONDS.toMillis(this.wallNanos), this.threads,
+          this.getUtilization() * 100, this.getEfficiency() * 100, TimeUnit.NANOSECONDS.toMillis(this.longestTaskNanos),
+          TimeUnit.NANOSECONDS.toMillis(this.admissionWaitNanos), TimeUnit.NANOSECONDS.toMillis(this.maxAdmissionWaitNanos));
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.Sets;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.vocabulary.RDF;
+import org.fhircat.jsonld.cli.exceptions.ShExValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Validator} on a ShEx schema sliced (see {@link ShExSchemaSlicer}) for the resource types met so far,
+ * rather than for types found by scanning all the inputs before the run.
+ *
+ * The types of each model (its resource, and its contained and Bundle entry resources) are read from its type arcs.
+ * A model with a type not met before widens the slice, with a new validator from <code>factory</code>, and the
+ * validator of the previous slice is dropped. Each slice is parsed again, so after {@link #MAX_SLICES} slices the
+ * validator is for the whole schema, which bounds the parse work of runs with many resource types.
+ */
+public class SlicingValidator implements Validator {
+
+  private static Logger log = LoggerFactory.getLogger(SlicingValidator.class);
+
+  private static final String FHIR_PREFIX = "http://hl7.org/fhir/";
+
+  public static final int MAX_SLICES = 4;
+
+  private static class Slice {
+    final Set<String> resourceTypes;
+    final Validator validator;
+
+    Slice(Set<String> resourceTypes, Validator validator) {
+      this.resourceTypes = resourceTypes;
+      this.validator = validator;
+    }
+  }
+
+  private final Function<Set<String>, Validator> factory;
+
+  private final Set<String> shapeTypes = ShExSchemaSlicer.getResourceTypes();
+
+  private volatile Slice slice = new Slice(Set.of(), null);
+
+  private int slices = 0;
+
+  /**
+   * @param factory a validator for a schema sliced for the given resource types, or for the whole schema if empty
+   */
+  public SlicingValidator(Function<Set<String>, Validator> factory) {
+    this.factory = factory;
+  }
+
+  @Override
+  public boolean validate(Model model, Consumer<List<ValidationResult>> errorHandler) {
+    Set<String> resourceTypes = this.getResourceTypes(model);
+
+    if (resourceTypes.isEmpty()) {
+      throw new ShExValidationException("No ShEx shape could be associated to: "
+          + FhirRdfConverter.getTreeRoot(model).map(Node::toString).orElse("a resource without a tree root"));
+    }
+
+    Slice slice = this.slice;
+    if (! slice.resourceTypes.containsAll(resourceTypes)) {
+      slice = this.widen(resourceTypes);
+    }
+
+    return slice.validator.validate(model, errorHandler);
+  }
+
+  private synchronized Slice widen(Set<String> resourceTypes) {
+    if (! this.slice.resourceTypes.containsAll(resourceTypes)) {
+      Set<String> widened = Sets.union(this.slice.resourceTypes, resourceTypes).immutableCopy();
+
+      // Dropped first, so that the previous slice can be collected while the next one is parsed
+      this.slice = new Slice(Set.of(), null);
+
+      if (++this.slices < MAX_SLICES) {
+        log.debug("Slicing the ShEx schema for: " + widened);
+
+        this.slice = new Slice(widened, this.factory.apply(widened));
+      } else {
+        log.debug("Using the whole ShEx schema, for: " + widened);
+
+        this.slice = new Slice(this.shapeTypes, this.factory.apply(Set.of()));
+      }
+    }
+
+    return this.slice;
+  }
+
+  /**
+   * The types of the resources in <code>model</code> that have a ShEx shape.
+   */
+  private Set<String> getResourceTypes(Model model) {
+    Set<String> resourceTypes = Sets.newHashSet();
+
+    model.getGraph().find(Node.ANY, RDF.type.asNode(), Node.ANY).forEachRemaining(triple -> {
+      Node type = triple.getObject();
+
+      if (type.isURI() && type.getURI().startsWith(FHIR_PREFIX)) {
+        String name = StringUtils.removeStart(type.getURI(), FHIR_PREFIX);
+
+        if (this.shapeTypes.contains(name)) {
+          resourceTypes.add(name);
+        }
+      }
+    });
+
+    return resourceTypes;
+  }
+
+}
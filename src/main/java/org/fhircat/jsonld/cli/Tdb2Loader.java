@@ -0,0 +1,157 @@
+package org.fhircat.jsonld.cli;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.tdb2.TDB2Factory;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads converted resources straight into a TDB2 dataset, one named graph per resource.
+ *
+ * Resources are streamed into the TDB2 parallel bulk loader, which commits once every
+ * <code>batchSize</code> resources (and on close). TDB2 transactions belong to a thread, so the
+ * loader is only ever driven from a thread of its own, whichever threads call {@link #load}.
+ */
+public class Tdb2Loader implements RdfSink {
+
+  private static Logger log = LoggerFactory.getLogger(Tdb2Loader.class);
+
+  private Dataset dataset;
+
+  private DatasetGraph datasetGraph;
+
+  private int batchSize;
+
+  private DataLoader loader;
+
+  private int batchCount = 0;
+
+  private long resourceCount = 0;
+
+  private final ExecutorService loaderThread = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "tdb2-loader");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public Tdb2Loader(File directory, int batchSize) {
+    this.dataset = TDB2Factory.connectDataset(directory.getPath());
+    this.datasetGraph = this.dataset.asDatasetGraph();
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public synchronized void load(Model model) {
+    this.onLoaderThread(() -> this.loadBatched(model));
+  }
+
+  @Override
+  public String getFormat() {
+    return "TDB2";
+  }
+
+  private void loadBatched(Model model) {
+    if (this.loader == null) {
+      this.loader = LoaderFactory.parallelLoader(this.datasetGraph, (fmt, args) -> log.debug(String.format(fmt, args)));
+      this.loader.startBulk();
+    }
+
+    // No tree root to name the graph after -- fall back to the default graph
+    Node graphName = FhirRdfConverter.getTreeRoot(model).orElse(Quad.defaultGraphNodeGenerated);
+
+    StreamRDF stream = this.loader.stream();
+    try {
+      model.getGraph().find().forEachRemaining(triple -> stream.quad(Quad.create(graphName, triple)));
+    } catch (RuntimeException e) {
+      // Abort (and roll back) the whole batch so the dataset is not left half loaded
+      this.loader.finishException(e);
+      this.loader = null;
+      this.batchCount = 0;
+
+      throw e;
+    }
+
+    this.resourceCount++;
+
+    if (++this.batchCount >= this.batchSize) {
+      this.finishBatch();
+    }
+  }
+
+  private void finishBatch() {
+    if (this.loader != null) {
+      this.loader.finishBulk();
+      log.debug("Committed TDB2 batch of " + this.batchCount + " resources");
+
+      this.loader = null;
+      this.batchCount = 0;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      this.onLoaderThread(() -> {
+        this.finishBatch();
+        this.dataset.close();
+      });
+    } finally {
+      this.loaderThread.shutdown();
+    }
+
+    log.info("Loaded " + this.resourceCount + " resources into TDB2 dataset");
+  }
+
+  /**
+   * Rolls back the batch in progress, rather than committing it. Batches already committed stay in the dataset.
+   */
+  @Override
+  public synchronized void abort() {
+    try {
+      this.onLoaderThread(() -> {
+        try {
+          if (this.loader != null) {
+            this.loader.finishException(new IllegalStateException("TDB2 load aborted"));
+            this.resourceCount -= this.batchCount;
+            this.loader = null;
+            this.batchCount = 0;
+          }
+        } finally {
+          this.dataset.close();
+        }
+      });
+    } finally {
+      this.loaderThread.shutdown();
+    }
+
+    log.info("Aborted TDB2 load, after " + this.resourceCount + " resources committed");
+  }
+
+  private void onLoaderThread(Runnable task) {
+    try {
+      this.loaderThread.submit(task).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+}
@@ -1,41 +1,29 @@
 package org.fhircat.jsonld.cli;
 
-import com.apicatalog.jsonld.JsonLd;
-import com.apicatalog.jsonld.JsonLdError;
-import com.apicatalog.jsonld.JsonLdOptions;
-import com.apicatalog.jsonld.api.ToRdfApi;
-import com.apicatalog.jsonld.document.Document;
-import com.apicatalog.jsonld.document.JsonDocument;
-import com.apicatalog.jsonld.http.media.MediaType;
-import com.apicatalog.jsonld.loader.DocumentLoader;
-import com.apicatalog.jsonld.loader.DocumentLoaderOptions;
-import com.apicatalog.jsonld.loader.HttpLoader;
-import com.apicatalog.rdf.Rdf;
-import com.apicatalog.rdf.RdfDataset;
-import com.apicatalog.rdf.io.RdfWriter;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.nio.charset.Charset;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import org.apache.commons.cli.CommandLine;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
+import org.fhircat.jsonld.cli.events.ConversionEvent;
+import org.fhircat.jsonld.cli.events.WriteEvent;
 import org.fhircat.jsonld.cli.exceptions.InvalidParameterException;
-import org.fhircat.jsonld.cli.exceptions.ShExValidationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,31 +31,26 @@ public class ToRdf extends BaseOperation {
 
   private static Logger log = LoggerFactory.getLogger(ToRdf.class);
 
-  private HttpLoader loader = new HttpLoader(HttpClient.newHttpClient());
+  // An input of '-' reads newline-delimited JSON from standard input
+  private static final String STDIN = "-";
 
-  private Map<URI, Document> cache = Maps.newConcurrentMap();
-
-  private Preprocess preprocess = new Preprocess();
-
-  private Validator scalaValidator = new ScalaShExValidator();
-  private Validator jenaValidator = new JenaShExValidator();
-  // private Validator javaValidator = new JavaShExValidator();
-
-  private ObjectMapper objectMapper = new ObjectMapper();
+  private static final AtomicBoolean firstOutputLogged = new AtomicBoolean();
 
   protected static Map<String, String> formatFileExtensions = Maps.newHashMap();
   static {
     formatFileExtensions.put("RDF/XML", "xml");
     formatFileExtensions.put("N-TRIPLE", "nq");
+    formatFileExtensions.put("N-QUADS", "nq");
     formatFileExtensions.put("TURTLE", "ttl");
     formatFileExtensions.put("TTL", "ttl");
     formatFileExtensions.put("N3", "n3");
+    formatFileExtensions.put("RDF-THRIFT", "rt");
+    formatFileExtensions.put("RDF-PROTO", "rpb");
+    formatFileExtensions.put(HdtWriter.FORMAT, "hdt");
   }
 
   @Override
   public void doRun(File inputFile, File outputFile, CommandLine commandLine) {
-    JsonLdOptions jsonLdOptions = this.getJsonLdOptions();
-
     String preDirectoryPath = commandLine.getOptionValue("p");
 
     File preDirectory;
@@ -82,167 +65,421 @@ public class ToRdf extends BaseOperation {
       preDirectory = null;
     }
 
-    String shexImpl = commandLine.getOptionValue("sheximpl");
+    boolean preIndent = Preprocess.isIndented(commandLine, false);
 
-    Validator validator;
-    if (StringUtils.isNotBlank(shexImpl)) {
-     switch (shexImpl) {
-       case "java": validator = this.jenaValidator; break;  // Replace by JavaShExValidator when updated?
-       case "jena": validator = this.jenaValidator; break;
-       case "scala": validator = this.scalaValidator; break;
-       default: throw new InvalidParameterException("sheximpl", shexImpl, "The requested ShEx implementation is not available. Please use either `scala` (default) or `java`.");
-     }
-    } else {
-      validator = this.scalaValidator;
+    String outputFormat = commandLine.getOptionValue("f", "N-TRIPLE");
+
+    boolean stdin = STDIN.equals(inputFile.getPath());
+
+    InputFinder inputs = stdin ? null : this.getInputs(inputFile, commandLine, RecordReader::isSupported);
+
+    boolean streamed = stdin || isStreamed(inputFile, inputs, outputFile, preDirectory, outputFormat, commandLine);
+
+    // Closed at the end of the run, which stops the threads converting the entries of large Bundles
+    try (FhirRdfConverter converter = new FhirRdfConverter(this.getConverterConfig(commandLine))) {
+      if (streamed) {
+        if (! stdin && preDirectory != null) {
+          throw new InvalidParameterException("p", preDirectoryPath, "Pre-JSON output requires plain .json input files.");
+        }
+
+        this.pipe(converter, inputs, outputFile, outputFormat, commandLine);
+      } else {
+        this.convertFiles(converter, inputFile, inputs, outputFile, preDirectory, preIndent, outputFormat, commandLine);
+      }
+
+      this.logReports(converter);
     }
+  }
+
+  /**
+   * Converts the plain JSON inputs one by one, to one output each, or to a sink.
+   */
+  private void convertFiles(FhirRdfConverter converter, File inputFile, InputFinder inputs, File outputFile, File preDirectory,
+      boolean preIndent, String outputFormat, CommandLine commandLine) {
+    RdfSink sink = this.getSink(outputFile, outputFormat, commandLine);
+
+    // A deduplicating or HDT sink writes the output file itself
+    File fileOutput = writesOutput(sink) ? null : outputFile;
+
+    Consumer<InputFinder.Input> fn = (input) -> {
+      File file = input.getFile();
+
+      if (! RecordReader.isPlainJson(file.getName())) {
+        log.warn("Skipping " + file.getPath() + ": newline-delimited, compressed or archived inputs require a single output file.");
+        return;
+      }
+
+      // Attributes the JFR events of this conversion to the file
+      ConversionEvent.setInput(file.getPath(), file.length());
 
-    Consumer<File> fn = (file) -> {
       try {
-        boolean validate = commandLine.hasOption("v");
-
-        writeFile(file, jsonLdOptions, outputFile, preDirectory,
-            commandLine.getOptionValue("f", "N-TRIPLE"),
-            commandLine.getOptionValue("fs", "http://hl7.org/fhir/"),
-            commandLine.getOptionValue("cs", "https://fhircat.org/fhir-r4/original/contexts/"),
-            commandLine.getOptionValue("vb", "http://build.fhir.org/"),
-            true,
-            validate,
-            validator
-        );
+        writeFile(converter, file, input.getRelativePath(), fileOutput, preDirectory, preIndent, sink, outputFormat);
       } catch (Throwable e) {
         log.warn("Error writing file: " + file.getPath() + ": " + e.getMessage());
         log.debug("-> ", e);
+      } finally {
+        ConversionEvent.clearInput();
       }
     };
 
-    if (inputFile.isDirectory()) {
-      if (outputFile == null) {
-        throw new RuntimeException("If the input file is a directory, the output must not be to standard out.");
-      }
+    try {
+      if (! inputs.isSingleFile()) {
+        if (fileOutput == null && sink == null) {
+          throw new RuntimeException("If the input is a directory or input list, the output must not be to standard out.");
+        }
 
-      if (! outputFile.isDirectory()) {
-        throw new RuntimeException("If the input file is a directory, the output must be as well.");
+        if (fileOutput != null && ! fileOutput.isDirectory()) {
+          throw new RuntimeException("If the input is a directory or input list, the output must be a directory as well.");
+        }
+
+        this.forEachFile(inputs, commandLine, 1, fn);
+      } else {
+        fn.accept(new InputFinder.Input(inputFile, inputFile.getName()));
       }
+    } catch (Throwable e) {
+      abort(sink);
+      throw e;
+    }
 
-      Arrays.stream(inputFile.listFiles((dir, name) -> name.endsWith(".json"))).forEach(fn);
-    } else {
-      fn.accept(inputFile);
+    if (sink != null) {
+      sink.close();
     }
   }
 
-  protected JsonLdOptions getJsonLdOptions() {
-    JsonLdOptions jsonLdOptions = new JsonLdOptions();
+  private void logReports(FhirRdfConverter converter) {
+    if (converter.getConfig().isValidate()) {
+      log.info(converter.getValidationReport().toString());
+    }
 
-    jsonLdOptions.setDocumentLoader(new DocumentLoader() {
+    if (converter.getConversionCache() != null) {
+      log.info(converter.getConversionCache().toString());
+    }
+  }
 
-      public synchronized Document loadDocument(URI url, DocumentLoaderOptions options) throws JsonLdError {
-        if (cache.containsKey(url)) {
-          return cache.get(url);
-        }
+  /**
+   * Whether the inputs are read as record streams (see {@link RecordReader}) to one output, rather than converted
+   * one file per resource. A single file is streamed if it is newline-delimited, compressed or archived.
+   *
+   * The files of a directory or input list are found as they are processed, so their types are not known up front:
+   * they are streamed if they go to standard output or a sink, to an existing file, or to a new file written by
+   * a sink (deduplicated, TDB2 or HDT); not with pre-JSON output. Otherwise the output must be a directory.
+   */
+  private static boolean isStreamed(File inputFile, InputFinder inputs, File outputFile, File preDirectory,
+      String outputFormat, CommandLine commandLine) {
+    if (inputs.isSingleFile()) {
+      return ! RecordReader.isPlainJson(inputFile.getName());
+    }
+
+    if (preDirectory != null || (outputFile != null && outputFile.isDirectory())) {
+      return false;
+    }
 
-        Document remoteDocument;
-        if (url.getScheme().equals("file")) {
+    return outputFile == null || outputFile.isFile() || commandLine.hasOption("dedup")
+        || StringUtils.isNotBlank(commandLine.getOptionValue("tdb2")) || outputFormat.equals(HdtWriter.FORMAT);
+  }
 
-          Document document;
-          try {
-            document = JsonDocument.of(new FileReader(new File(url)));
-          } catch (Exception e) {
-            throw new RuntimeException(e);
-          }
+  /**
+   * Streams FHIR JSON from the inputs, or newline-delimited from standard input if <code>inputs</code> is null,
+   * to N-Triples/N-Quads or a sink (see {@link NdjsonPipe}).
+   */
+  private void pipe(FhirRdfConverter converter, InputFinder inputs, File outputFile, String outputFormat, CommandLine commandLine) {
+    String input = inputs == null ? "Reading from standard input"
+        : inputs.isSingleFile() ? "Reading newline-delimited, compressed or archived inputs"
+        : "Reading a directory or input list";
+
+    if (outputFile != null && outputFile.isDirectory()) {
+      throw new InvalidParameterException("o", outputFile.getPath(), input + " requires a single output file.");
+    }
 
-          document.setDocumentUrl(url);
+    String flush = commandLine.getOptionValue("flush", "1");
 
-          return document;
-        } else {
+    if (! StringUtils.isNumeric(flush) || Integer.parseInt(flush) < 1) {
+      throw new InvalidParameterException("flush", flush, "Parameter must be a positive number.");
+    }
 
-          log.debug("Starting HTTP Load:" + url);
-          remoteDocument = loader.loadDocument(url, options);
-          log.debug("Done HTTP Load");
+    RdfSink sink = this.getSink(outputFile, outputFormat, commandLine);
+
+    // A deduplicating or HDT sink writes the output file itself
+    boolean writeOutput = sink == null || (outputFile != null && ! writesOutput(sink));
+
+    try {
+      if (writeOutput && ! outputFormat.equals("N-TRIPLE") && ! outputFormat.equals("N-QUADS")) {
+        throw new InvalidParameterException("f", outputFormat, input + " requires N-TRIPLE or N-QUADS output.");
+      }
+
+      NdjsonPipe pipe = new NdjsonPipe(converter, this.getThreads(commandLine, 1), ! commandLine.hasOption("unordered"),
+          Integer.parseInt(flush), outputFormat.equals("N-QUADS"), sink);
+
+      try (OutputStream out = ! writeOutput ? null : outputFile != null
+          ? new BufferedOutputStream(new FileOutputStream(outputFile))
+          : new BufferedOutputStream(new FileOutputStream(FileDescriptor.out))) {
+        if (inputs == null) {
+          pipe.run(System.in, out, System.err);
+        } else {
+          pipe.run(inputs, out, System.err);
         }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    } catch (Throwable e) {
+      abort(sink);
+      throw e;
+    }
+
+    if (sink != null) {
+      sink.close();
+    }
+  }
 
-        cache.put(url, remoteDocument);
+  /**
+   * Ends the run of a sink after a failure, without producing its output (see {@link RdfSink#abort()}).
+   */
+  private static void abort(RdfSink sink) {
+    if (sink == null) {
+      return;
+    }
+
+    try {
+      sink.abort();
+    } catch (RuntimeException e) {
+      log.debug("Error discarding " + sink.getFormat() + " output: " + e.getMessage(), e);
+    }
+  }
 
-        return remoteDocument;
+  /**
+   * The resource types to slice the ShEx schema for, from the shapes parameter. Empty (the whole schema) if not
+   * validating or for 'all', and by default <code>null</code>: sliced for the types of the resources as they are
+   * validated (see {@link SlicingValidator}).
+   */
+  private Set<String> getShapes(CommandLine commandLine) {
+    String shapes = commandLine.getOptionValue("shapes");
+
+    if (! commandLine.hasOption("v") || "all".equals(shapes)) {
+      return Collections.emptySet();
+    }
+
+    if (shapes == null) {
+      return null;
+    }
+
+    Set<String> resourceTypes = Arrays.stream(shapes.split(","))
+        .map(String::trim)
+        .filter(StringUtils::isNotEmpty)
+        .collect(Collectors.toSet());
+
+    Set<String> unknown = Sets.difference(resourceTypes, ShExSchemaSlicer.getResourceTypes());
+    if (! unknown.isEmpty()) {
+      throw new InvalidParameterException("shapes", shapes, "No ShEx shapes for resource types: " + unknown);
+    }
+
+    return resourceTypes;
+  }
+
+  private ConverterConfig getConverterConfig(CommandLine commandLine) {
+    String shexImpl = commandLine.getOptionValue("sheximpl", "scala");
+
+    if (! ConverterConfig.SHEX_IMPLEMENTATIONS.contains(shexImpl)) {
+      throw new InvalidParameterException("sheximpl", shexImpl, "The requested ShEx implementation is not available. Please use either `scala` (default) or `java`.");
+    }
+
+    String validationPolicy = commandLine.getOptionValue("validationpolicy", "all");
+
+    ValidationPolicy policy;
+    try {
+      policy = ValidationPolicy.parse(validationPolicy);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidParameterException("validationpolicy", validationPolicy, e.getMessage());
+    }
+
+    String cacheSize = commandLine.getOptionValue("cachesize", "0");
+
+    if (! StringUtils.isNumeric(cacheSize)) {
+      throw new InvalidParameterException("cachesize", cacheSize, "Parameter must be a number.");
+    }
+
+    String cacheDirectory = commandLine.getOptionValue("cachedir");
+
+    if (cacheDirectory != null && new File(cacheDirectory).exists() && ! new File(cacheDirectory).isDirectory()) {
+      throw new InvalidParameterException("cachedir", cacheDirectory, "Parameter must be a directory.");
+    }
+
+    String bundleThreads = commandLine.getOptionValue("bundlethreads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+
+    if (! StringUtils.isNumeric(bundleThreads) || Integer.parseInt(bundleThreads) < 1) {
+      throw new InvalidParameterException("bundlethreads", bundleThreads, "Parameter must be a positive number.");
+    }
+
+    return ConverterConfig.defaults()
+        .withFhirServer(commandLine.getOptionValue("fs", "http://hl7.org/fhir/"))
+        .withContextServer(commandLine.getOptionValue("cs", "https://fhircat.org/fhir-r4/original/contexts/"))
+        .withVersionBase(commandLine.getOptionValue("vb", "http://build.fhir.org/"))
+        .withAddContext(true)
+        .withValidation(commandLine.hasOption("v"))
+        .withShExImplementation(shexImpl)
+        .withValidationPolicy(policy)
+        .withShapes(this.getShapes(commandLine))
+        .withCache(Long.parseLong(cacheSize), cacheDirectory != null ? new File(cacheDirectory) : null)
+        .withBundleParallelism(Integer.parseInt(bundleThreads));
+  }
+
+  private RdfSink getSink(File outputFile, String outputFormat, CommandLine commandLine) {
+    if (commandLine.hasOption("dedup")) {
+      if (commandLine.hasOption("tdb2")) {
+        throw new InvalidParameterException("dedup", "", "Deduplication cannot be combined with a TDB2 load.");
       }
-    });
 
-    return jsonLdOptions;
+      return this.getDedupWriter(outputFile, outputFormat, commandLine);
+    } else if (outputFormat.equals(HdtWriter.FORMAT)) {
+      return this.getHdtWriter(outputFile, commandLine);
+    } else if (StringUtils.isNotBlank(commandLine.getOptionValue("tdb2"))) {
+      return this.getTdb2Loader(commandLine);
+    } else {
+      return null;
+    }
   }
 
-  private void writeFile(File input, JsonLdOptions jsonLdOptions, File output, File outputPreDirectory, String outputFormat,
-      String fhirServer, String contextServer, String versionBase, boolean addContext, boolean validate, Validator validator) throws Exception, JsonLdError {
-    Map preprocessedJsonMap = this.preprocess.toR4(
-        this.objectMapper.readValue(new FileReader(input), Map.class),
-        versionBase,
-        contextServer,
-        fhirServer,
-        addContext
-    );
+  /**
+   * Whether the sink writes the output file itself (rather than alongside the output).
+   */
+  private static boolean writesOutput(RdfSink sink) {
+    return sink instanceof DedupQuadWriter || sink instanceof HdtWriter;
+  }
 
-    String preprocessedJson = this.objectMapper.writeValueAsString(preprocessedJsonMap);
+  /**
+   * An HDT writer for a single output file (the whole run), or null for an output directory (one HDT file per input).
+   */
+  private HdtWriter getHdtWriter(File outputFile, CommandLine commandLine) {
+    if (StringUtils.isNotBlank(commandLine.getOptionValue("tdb2"))) {
+      throw new InvalidParameterException("f", HdtWriter.FORMAT, "HDT output cannot be combined with a TDB2 load.");
+    }
 
-    String fileName = input.getName();
+    if (outputFile == null) {
+      throw new InvalidParameterException("o", "", "HDT output must be written to a file or directory.");
+    }
 
-    if (outputPreDirectory != null) {
-      log.debug("Starting write of pre-JSON to: " + outputPreDirectory.getPath());
+    return outputFile.isDirectory() ? null : new HdtWriter(outputFile, FHIR.FHIR_NS);
+  }
+
+  private DedupQuadWriter getDedupWriter(File outputFile, String outputFormat, CommandLine commandLine) {
+    if (commandLine.hasOption("f") && ! outputFormat.equals("N-QUADS")) {
+      throw new InvalidParameterException("f", outputFormat, "Deduplicated output is always N-QUADS.");
+    }
 
-      String preFilename = fileName
-          .replace(".json", "-pre.json");
+    if (outputFile == null || outputFile.isDirectory()) {
+      throw new InvalidParameterException("o", String.valueOf(outputFile), "Deduplicated output must be a single file.");
+    }
+
+    String memory = commandLine.getOptionValue("dedupmemory", "256");
 
-      FileUtils.write(new File(outputPreDirectory, preFilename), preprocessedJson);
+    if (! StringUtils.isNumeric(memory) || Integer.parseInt(memory) < 1) {
+      throw new InvalidParameterException("dedupmemory", memory, "Parameter must be a positive number.");
     }
 
-    long time = System.currentTimeMillis();
-    log.debug("Starting JSONLD for: " + input.getPath());
-    ToRdfApi rdf = JsonLd.toRdf(JsonDocument.of(new StringReader(preprocessedJson))).options(jsonLdOptions);
+    return new DedupQuadWriter(outputFile, Long.parseLong(memory) * 1024 * 1024);
+  }
+
+  private Tdb2Loader getTdb2Loader(CommandLine commandLine) {
+    String tdb2DirectoryPath = commandLine.getOptionValue("tdb2");
 
-    RdfDataset dataset = rdf.get();
-    log.debug("Done JSONLD for: " + input.getPath() + " " + Long.toString(System.currentTimeMillis() - time) + "ms");
+    String batchSize = commandLine.getOptionValue("tdb2batch", "1000");
 
-    StringWriter sw = new StringWriter();
-    log.debug("Starting RDF Writing Create for: " + input.getPath() + " " + Long.toString(System.currentTimeMillis() - time) + "ms");
-    RdfWriter writer = Rdf.createWriter(MediaType.N_QUADS, sw);
-    log.debug("Starting RDF Writing for: " + input.getPath() + " " + Long.toString(System.currentTimeMillis() - time) + "ms");
+    if (! StringUtils.isNumeric(batchSize) || Integer.parseInt(batchSize) < 1) {
+      throw new InvalidParameterException("tdb2batch", batchSize, "Parameter must be a positive number.");
+    }
+
+    File tdb2Directory = new File(tdb2DirectoryPath);
 
-    writer.write(dataset);
+    if (tdb2Directory.exists() && ! tdb2Directory.isDirectory()) {
+      throw new InvalidParameterException("tdb2", tdb2DirectoryPath, "Parameter must be a directory.");
+    }
 
-    log.debug("Data set size: " + Integer.toString(dataset.size()));
-    log.debug("Done RDF Writing for: " + input.getPath() + " " + Long.toString(System.currentTimeMillis() - time) + "ms");
+    return new Tdb2Loader(tdb2Directory, Integer.parseInt(batchSize));
+  }
 
-    log.debug("Starting RDF Transform for: " + input.getPath());
-    Model model = ModelFactory.createDefaultModel();
-    model.read(IOUtils.toInputStream(sw.toString(), Charset.defaultCharset()), null, "N-TRIPLES");
-    log.debug("Done RDF Transform for: " + input.getPath());
+  /**
+   * Converts one input file. Its outputs in the output and pre-JSON directories are named after its
+   * <code>relativePath</code>, in subdirectories as needed.
+   */
+  private void writeFile(FhirRdfConverter converter, File input, String relativePath, File output, File outputPreDirectory,
+      boolean preIndent, RdfSink sink, String outputFormat) throws Exception {
+    Map<String, Object> fhirJson = converter.readJson(input);
 
-    if (validate) {
-      List<ValidationResult> errors = Lists.newArrayList();
-      Consumer<List<ValidationResult>> errorHandler = (x) -> {
-        errors.addAll(x);
-      };
+    String baseName = StringUtils.removeEnd(relativePath, ".json");
 
-      boolean isValid = validator.validate(model, errorHandler);
+    Model model;
 
-      if (! isValid) {
-        throw new ShExValidationException("Input file " + input.getPath() + " does not pass ShEx validation.", errors);
+    if (outputPreDirectory != null) {
+      // The 'pre'-JSON is needed, so bypass the conversion cache
+      Map<String, Object> preprocessedJson = converter.preprocess(fhirJson);
+
+      log.debug("Starting write of pre-JSON to: " + outputPreDirectory.getPath());
+
+      try (OutputStream out = new FileOutputStream(createOutputFile(outputPreDirectory, baseName + "-pre.json"))) {
+        converter.writePreprocessed(preprocessedJson, out, preIndent);
       }
+
+      log.debug("Starting RDF conversion for: " + input.getPath());
+      model = converter.toModel(preprocessedJson);
+      log.debug("Done RDF conversion for: " + input.getPath());
+    } else {
+      log.debug("Starting RDF conversion for: " + input.getPath());
+      model = converter.convert(fhirJson);
+      log.debug("Done RDF conversion for: " + input.getPath());
+    }
+
+    if (sink != null) {
+      log.debug("Starting load for: " + input.getPath());
+      WriteEvent event = new WriteEvent();
+      event.format = sink.getFormat();
+      event.begin();
+
+      sink.load(model);
+
+      event.finish(model.size());
+      log.debug("Done load for: " + input.getPath());
     }
 
     if (output != null) {
       if (output.isDirectory()) {
-        String ttlFilename = fileName
-            .replace(".json", "." + formatFileExtensions.get(outputFormat));
-
-        File outputFile = new File(output, ttlFilename);
+        File outputFile = createOutputFile(output, baseName + "." + formatFileExtensions.get(outputFormat));
 
-        model.write(new FileOutputStream(outputFile), outputFormat);
+        try (OutputStream out = new FileOutputStream(outputFile)) {
+          FhirRdfConverter.write(model, out, outputFormat);
+        }
       } else {
-        model.write(new FileOutputStream(output), outputFormat);
+        try (OutputStream out = new FileOutputStream(output)) {
+          FhirRdfConverter.write(model, out, outputFormat);
+        }
       }
-    } else {
-      model.write(System.out, outputFormat);
+    } else if (sink == null) {
+      FhirRdfConverter.write(model, System.out, outputFormat);
     }
 
-    sw.close();
+    logFirstOutput();
+  }
+
+  private static File createOutputFile(File directory, String relativePath) {
+    File file = new File(directory, relativePath);
+
+    // Checked again after mkdirs, as another worker may have just created it
+    if (! file.getParentFile().isDirectory() && ! file.getParentFile().mkdirs() && ! file.getParentFile().isDirectory()) {
+      throw new UncheckedIOException(new IOException("Cannot create output directory: " + file.getParentFile().getPath()));
+    }
+
+    return file;
+  }
+
+  /**
+   * Logs (at debug) the time from JVM start to the first resource written, once: the latency of single-file runs.
+   */
+  private static void logFirstOutput() {
+    if (log.isDebugEnabled() && firstOutputLogged.compareAndSet(false, true)) {
+      ProcessHandle.current().info().startInstant().ifPresent(start ->
+          log.debug("Time to first output: " + Duration.between(start, Instant.now()).toMillis() + " ms since JVM start"));
+    }
   }
 
 }
@@ -0,0 +1,161 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Which resources are ShEx validated when validation is on: all of them, or a sample.
+ *
+ * <ul>
+ *   <li><code>all</code> - every resource</li>
+ *   <li><code>fraction:F</code> - a fraction F (0-1) of the resources</li>
+ *   <li><code>first:N</code> - the first N resources of each resource type</li>
+ *   <li><code>stratified:F[:N]</code> - a fraction F of each stratum (resource type and size class, by powers
+ *   of two of the triple count), and at least the first N (default: 10) of each stratum</li>
+ * </ul>
+ *
+ * Fraction sampling is by a hash of the resource IRI, so a run over the same input validates the same resources.
+ */
+public final class ValidationPolicy {
+
+  private static final int DEFAULT_STRATUM_MINIMUM = 10;
+
+  private enum Mode { ALL, FRACTION, FIRST, STRATIFIED }
+
+  private final Mode mode;
+
+  private final double fraction;
+
+  private final long count;
+
+  private ValidationPolicy(Mode mode, double fraction, long count) {
+    this.mode = mode;
+    this.fraction = fraction;
+    this.count = count;
+  }
+
+  public static ValidationPolicy all() {
+    return new ValidationPolicy(Mode.ALL, 1, 0);
+  }
+
+  public static ValidationPolicy fraction(double fraction) {
+    return new ValidationPolicy(Mode.FRACTION, checkFraction(fraction), 0);
+  }
+
+  public static ValidationPolicy firstPerType(long count) {
+    return new ValidationPolicy(Mode.FIRST, 0, checkCount(count));
+  }
+
+  public static ValidationPolicy stratified(double fraction, long minimum) {
+    return new ValidationPolicy(Mode.STRATIFIED, checkFraction(fraction), checkCount(minimum));
+  }
+
+  /**
+   * Parses a policy in the syntax listed above.
+   *
+   * @throws IllegalArgumentException if the policy is not valid
+   */
+  public static ValidationPolicy parse(String policy) {
+    String[] parts = policy.trim().split(":");
+
+    try {
+      switch (parts[0]) {
+        case "all":
+          if (parts.length == 1) {
+            return all();
+          }
+          break;
+        case "fraction":
+          if (parts.length == 2) {
+            return fraction(Double.parseDouble(parts[1]));
+          }
+          break;
+        case "first":
+          if (parts.length == 2) {
+            return firstPerType(Long.parseLong(parts[1]));
+          }
+          break;
+        case "stratified":
+          if (parts.length == 2 || parts.length == 3) {
+            return stratified(Double.parseDouble(parts[1]),
+                parts.length == 3 ? Long.parseLong(parts[2]) : DEFAULT_STRATUM_MINIMUM);
+          }
+          break;
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid number in validation policy: " + policy);
+    }
+
+    throw new IllegalArgumentException("Unknown validation policy: " + policy);
+  }
+
+  private static double checkFraction(double fraction) {
+    if (! (fraction >= 0 && fraction <= 1)) {
+      throw new IllegalArgumentException("Fraction must be between 0 and 1.");
+    }
+
+    return fraction;
+  }
+
+  private static long checkCount(long count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("Count must not be negative.");
+    }
+
+    return count;
+  }
+
+  public boolean isSampling() {
+    return this.mode != Mode.ALL;
+  }
+
+  /**
+   * Creates the (stateful, thread-safe) selection for one converter.
+   */
+  Sampler newSampler() {
+    return new Sampler();
+  }
+
+  class Sampler {
+
+    private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    boolean select(String resourceType, String resourceIri, long tripleCount) {
+      switch (mode) {
+        case FRACTION:
+          return this.isHashSampled(resourceIri);
+        case FIRST:
+          return this.increment(resourceType) <= count;
+        case STRATIFIED:
+          int sizeClass = 63 - Long.numberOfLeadingZeros(Math.max(tripleCount, 1));
+          return this.increment(resourceType + "/" + sizeClass) <= count || this.isHashSampled(resourceIri);
+        default:
+          return true;
+      }
+    }
+
+    private long increment(String key) {
+      return this.counts.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private boolean isHashSampled(String resourceIri) {
+      long hash = Hashing.murmur3_32().hashString(String.valueOf(resourceIri), StandardCharsets.UTF_8).asInt() & 0xffffffffL;
+
+      return hash < fraction * (1L << 32);
+    }
+  }
+
+  @Override
+  public String toString() {
+    switch (this.mode) {
+      case FRACTION: return "fraction:" + this.fraction;
+      case FIRST: return "first:" + this.count;
+      case STRATIFIED: return "stratified:" + this.fraction + ":" + this.count;
+      default: return "all";
+    }
+  }
+
+}
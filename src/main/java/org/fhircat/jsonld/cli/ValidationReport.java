@@ -0,0 +1,99 @@
+package org.fhircat.jsonld.cli;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Per resource type counts of converted, validated and conforming resources, with the estimated
+ * conformance rate of all resources of the type (a 95% Wilson score interval over the validated sample).
+ *
+ * Thread-safe.
+ */
+public class ValidationReport {
+
+  // z for a two-sided 95% interval
+  private static final double Z = 1.96;
+
+  private final Map<String, Counts> types = new ConcurrentSkipListMap<>();
+
+  private static class Counts {
+    final LongAdder converted = new LongAdder();
+    final LongAdder validated = new LongAdder();
+    final LongAdder conforming = new LongAdder();
+  }
+
+  void record(String resourceType, boolean validated, boolean conforming) {
+    Counts counts = this.types.computeIfAbsent(resourceType, type -> new Counts());
+
+    counts.converted.increment();
+    if (validated) {
+      counts.validated.increment();
+    }
+    if (conforming) {
+      counts.conforming.increment();
+    }
+  }
+
+  public Set<String> getResourceTypes() {
+    return this.types.keySet();
+  }
+
+  public long getConverted(String resourceType) {
+    return this.get(resourceType, counts -> counts.converted);
+  }
+
+  public long getValidated(String resourceType) {
+    return this.get(resourceType, counts -> counts.validated);
+  }
+
+  public long getConforming(String resourceType) {
+    return this.get(resourceType, counts -> counts.conforming);
+  }
+
+  private long get(String resourceType, Function<Counts, LongAdder> counter) {
+    Counts counts = this.types.get(resourceType);
+
+    return counts != null ? counter.apply(counts).sum() : 0;
+  }
+
+  /**
+   * The 95% Wilson score interval of the conformance rate of a resource type, as <code>{ low, high }</code>,
+   * or <code>{ 0, 1 }</code> if none were validated.
+   */
+  public double[] getConformanceInterval(String resourceType) {
+    double n = this.getValidated(resourceType);
+
+    if (n == 0) {
+      return new double[] { 0, 1 };
+    }
+
+    double p = this.getConforming(resourceType) / n;
+
+    double denominator = 1 + Z * Z / n;
+    double center = (p + Z * Z / (2 * n)) / denominator;
+    double margin = Z * Math.sqrt(p * (1 - p) / n + Z * Z / (4 * n * n)) / denominator;
+
+    return new double[] { Math.max(0, center - margin), Math.min(1, center + margin) };
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder report = new StringBuilder("ShEx validation report (resource type: validated/converted, conformance rate [95% interval]):");
+
+    for (String type : this.types.keySet()) {
+      long validated = this.getValidated(type);
+      double[] interval = this.getConformanceInterval(type);
+
+      report.append(String.format("%n  %s: %d/%d, %s [%.1f%% - %.1f%%]",
+          type, validated, this.getConverted(type),
+          validated > 0 ? String.format("%.1f%%", 100.0 * this.getConforming(type) / validated) : "-",
+          100 * interval[0], 100 * interval[1]));
+    }
+
+    return report.toString();
+  }
+
+}
@@ -8,12 +8,28 @@ public class ValidationResult {
 
   private String message;
 
+  /**
+   * @param shape the shape label, as a bare IRI or in any form wrapping one in angle brackets (such as
+   *              <code>&lt;http://hl7.org/fhir/shape/Patient&gt;</code>), which is reduced to the bare IRI, so that
+   *              the results of the validation engines compare equal
+   */
   public ValidationResult(String node, String shape, String message) {
     this.node = node;
-    this.shape = shape;
+    this.shape = toIri(shape);
     this.message = message;
   }
 
+  private static String toIri(String shape) {
+    if (shape == null) {
+      return null;
+    }
+
+    int start = shape.indexOf('<');
+    int end = shape.lastIndexOf('>');
+
+    return start >= 0 && end > start ? shape.substring(start + 1, end) : shape;
+  }
+
   public String getNode() {
     return node;
   }
@@ -0,0 +1,72 @@
+package org.fhircat.jsonld.cli;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.apache.jena.rdf.model.Model;
+
+/**
+ * A {@link Validator} that spreads concurrent validations over a bounded pool of validator instances.
+ *
+ * Each instance is only used by one thread at a time, which isolates any per-instance engine state,
+ * while the instances share the parsed schema. Up to <code>size</code> instances are created on demand;
+ * further callers wait until one is returned.
+ */
+public class ValidatorPool implements Validator {
+
+  private final Supplier<Validator> factory;
+
+  private final int size;
+
+  private final BlockingQueue<Validator> idle = new LinkedBlockingQueue<>();
+
+  private final AtomicInteger created = new AtomicInteger();
+
+  public ValidatorPool(Supplier<Validator> factory, int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Pool size must be positive.");
+    }
+
+    this.factory = factory;
+    this.size = size;
+  }
+
+  @Override
+  public boolean validate(Model model, Consumer<List<ValidationResult>> errorHandler) {
+    Validator validator = this.borrow();
+
+    try {
+      return validator.validate(model, errorHandler);
+    } finally {
+      this.idle.add(validator);
+    }
+  }
+
+  private Validator borrow() {
+    Validator validator = this.idle.poll();
+
+    if (validator != null) {
+      return validator;
+    }
+
+    if (this.created.incrementAndGet() <= this.size) {
+      try {
+        return this.factory.get();
+      } catch (RuntimeException e) {
+        this.created.decrementAndGet();
+        throw e;
+      }
+    }
+
+    try {
+      return this.idle.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for a validator.", e);
+    }
+  }
+
+}
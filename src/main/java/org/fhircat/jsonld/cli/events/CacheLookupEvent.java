@@ -0,0 +1,13 @@
+package org.fhircat.jsonld.cli.events;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.fhircat.jsonld.CacheLookup")
+@Label("Conversion Cache Lookup")
+public class CacheLookupEvent extends ConversionEvent {
+
+  @Label("Outcome")
+  public String outcome;
+
+}
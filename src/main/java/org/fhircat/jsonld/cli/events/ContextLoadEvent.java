@@ -0,0 +1,16 @@
+package org.fhircat.jsonld.cli.events;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.fhircat.jsonld.ContextLoad")
+@Label("JSON-LD Context Load")
+public class ContextLoadEvent extends ConversionEvent {
+
+  @Label("URL")
+  public String url;
+
+  @Label("Cached")
+  public boolean cached;
+
+}
@@ -0,0 +1,93 @@
+package org.fhircat.jsonld.cli.events;
+
+import java.util.concurrent.Callable;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Base of the JFR events recorded for each conversion stage of a resource.
+ *
+ * The input (file path or NDJSON record) and its size are taken from the thread that converts it, as set by
+ * {@link #setInput(String, long)}. Events cost next to nothing unless a recording enables them, so they
+ * stay in place in production runs (see <code>jfr/fhircat.jfc</code> in the distribution).
+ */
+@Category({ "FHIRCat", "Conversion" })
+public abstract class ConversionEvent extends Event {
+
+  private static final ThreadLocal<Input> currentInput = new ThreadLocal<>();
+
+  private static class Input {
+    final String source;
+    final long size;
+
+    Input(String source, long size) {
+      this.source = source;
+      this.size = size;
+    }
+  }
+
+  @Label("Input")
+  @Description("The input file path, or the NDJSON record number")
+  String source;
+
+  @Label("Input Size")
+  @Description("Size of the input (0 if not known)")
+  @DataAmount
+  long size;
+
+  @Label("Triples")
+  @Description("Triple count of the resource (0 if not yet converted)")
+  long triples;
+
+  /**
+   * Sets the input that the current thread is converting, until {@link #clearInput()}.
+   */
+  public static void setInput(String source, long size) {
+    currentInput.set(new Input(source, size));
+  }
+
+  public static void clearInput() {
+    currentInput.remove();
+  }
+
+  /**
+   * Wraps <code>task</code> to run with the input of the current thread, for parts of a conversion run on
+   * other threads (such as Bundle entries).
+   */
+  public static <T> Callable<T> withInput(Callable<T> task) {
+    Input input = currentInput.get();
+
+    return () -> {
+      Input previous = currentInput.get();
+      currentInput.set(input);
+
+      try {
+        return task.call();
+      } finally {
+        currentInput.set(previous);
+      }
+    };
+  }
+
+  /**
+   * Ends the event and commits it, if enabled and over its threshold, with the current input.
+   */
+  public void finish(long triples) {
+    this.end();
+
+    if (this.shouldCommit()) {
+      Input input = currentInput.get();
+      if (input != null) {
+        this.source = input.source;
+        this.size = input.size;
+      }
+      this.triples = triples;
+
+      this.commit();
+    }
+  }
+
+}
@@ -0,0 +1,9 @@
+package org.fhircat.jsonld.cli.events;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.fhircat.jsonld.JenaLoad")
+@Label("Jena Load")
+public class JenaLoadEvent extends ConversionEvent {
+}
@@ -0,0 +1,9 @@
+package org.fhircat.jsonld.cli.events;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.fhircat.jsonld.JsonLd")
+@Label("JSON-LD toRdf")
+public class JsonLdEvent extends ConversionEvent {
+}
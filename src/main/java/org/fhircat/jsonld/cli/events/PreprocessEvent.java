@@ -0,0 +1,9 @@
+package org.fhircat.jsonld.cli.events;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.fhircat.jsonld.Preprocess")
+@Label("Preprocess")
+public class PreprocessEvent extends ConversionEvent {
+}
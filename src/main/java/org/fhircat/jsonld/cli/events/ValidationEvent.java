@@ -0,0 +1,22 @@
+package org.fhircat.jsonld.cli.events;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.fhircat.jsonld.Validation")
+@Label("ShEx Validation")
+public class ValidationEvent extends ConversionEvent {
+
+  @Label("Engine")
+  public String engine;
+
+  @Label("Shape")
+  public String shape;
+
+  @Label("Conforms")
+  public boolean conforms;
+
+  @Label("Nonconformant Shapes")
+  public int errors;
+
+}
@@ -0,0 +1,13 @@
+package org.fhircat.jsonld.cli.events;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.fhircat.jsonld.Write")
+@Label("Write")
+public class WriteEvent extends ConversionEvent {
+
+  @Label("Format")
+  public String format;
+
+}
@@ -0,0 +1,91 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.rdf.model.Model;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BundleSplitterTest {
+
+  private static final String CONTEXT_SERVER = "https://fhircat.org/fhir-r4/original/contexts/";
+
+  // An entry that cannot be split out (no id), and one with a contained resource
+  private static final String IRREGULAR_ENTRIES = "{\"resource\": {\"resourceType\": \"Patient\", \"active\": false}}, "
+      + "{\"fullUrl\": \"http://hl7.org/fhir/Patient/c\", \"resource\": {\"resourceType\": \"Patient\", \"id\": \"c\","
+      + " \"contained\": [{\"resourceType\": \"Organization\", \"id\": \"o\", \"name\": \"Clinic\"}],"
+      + " \"managingOrganization\": {\"reference\": \"#o\"}}}, ";
+
+  private static FhirRdfConverter whole;
+
+  private static FhirRdfConverter split;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @BeforeClass
+  public static void createConverters() {
+    whole = new FhirRdfConverter(Fixtures.config().withBundleParallelism(1));
+    split = new FhirRdfConverter(Fixtures.config().withBundleParallelism(4));
+  }
+
+  @AfterClass
+  public static void closeConverters() {
+    whole.close();
+    split.close();
+  }
+
+  @Test
+  public void splitsOutEachEntryResourceWithAnId() throws Exception {
+    List<Map<String, Object>> documents = BundleSplitter.split(this.preprocess(irregularBundle(20)), 16).orElseThrow();
+
+    // The envelope, and all but the entry without an id
+    assertEquals(1 + 21, documents.size());
+
+    List<Map> entries = (List<Map>) documents.get(0).get("entry");
+    assertEquals(22, entries.size());
+    assertEquals(Map.of("@context", CONTEXT_SERVER + "patient.context.jsonld", "@id", "http://hl7.org/fhir/Patient/c"),
+        entries.get(1).get("resource"));
+    assertFalse(((Map) entries.get(0).get("resource")).containsKey("@id"));
+
+    // Each entry document places its resource as in the Bundle
+    Map entry = (Map) ((List) documents.get(1).get("entry")).get(0);
+    assertEquals("http://hl7.org/fhir/Patient/c", ((Map) entry.get("resource")).get("@id"));
+    assertEquals(documents.get(0).get("@context"), documents.get(1).get("@context"));
+  }
+
+  @Test
+  public void splitsOnlyLargeBundles() throws Exception {
+    assertFalse(BundleSplitter.split(this.preprocess(Fixtures.bundle("b", 15)), 16).isPresent());
+    assertTrue(BundleSplitter.split(this.preprocess(Fixtures.bundle("b", 16)), 16).isPresent());
+    assertFalse(BundleSplitter.split(this.preprocess(Fixtures.patient("p")), 16).isPresent());
+  }
+
+  @Test
+  public void convertsAsTheWholeBundle() throws Exception {
+    for (String bundle : new String[] { Fixtures.bundle("b", 40), irregularBundle(30) }) {
+      Model wholeModel = whole.convert(Fixtures.bytes(bundle));
+      Model splitModel = split.convert(Fixtures.bytes(bundle));
+
+      assertEquals(wholeModel.size(), splitModel.size());
+      assertTrue(wholeModel.isIsomorphicWith(splitModel));
+    }
+  }
+
+  private Map<String, Object> preprocess(String json) throws Exception {
+    return new Preprocess().toR4(this.objectMapper.readValue(json, Map.class), "http://build.fhir.org/", CONTEXT_SERVER, "http://hl7.org/fhir/", true);
+  }
+
+  private static String irregularBundle(int entries) {
+    String bundle = Fixtures.bundle("b", entries);
+    int first = bundle.indexOf("\"entry\": [") + "\"entry\": [".length();
+
+    return bundle.substring(0, first) + IRREGULAR_ENTRIES + bundle.substring(first);
+  }
+
+}
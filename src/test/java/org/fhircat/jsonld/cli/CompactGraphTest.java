@@ -0,0 +1,93 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Set;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.shared.AddDeniedException;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompactGraphTest {
+
+  private static FhirRdfConverter converter;
+
+  @BeforeClass
+  public static void createConverter() {
+    converter = new FhirRdfConverter(Fixtures.config());
+  }
+
+  @AfterClass
+  public static void closeConverter() {
+    converter.close();
+  }
+
+  @Test
+  public void findsEveryPatternAsJenasGraphDoes() throws Exception {
+    Graph plain = GraphFactory.createDefaultGraph();
+    converter.convert(Fixtures.bytes(Fixtures.bundle("b", 6))).getGraph().find().forEachRemaining(plain::add);
+
+    CompactGraph compact = CompactGraph.of(plain);
+
+    assertEquals(plain.size(), compact.size());
+    assertTrue(compact.isIsomorphicWith(plain));
+
+    // Every combination of bound and unbound positions, from every triple
+    for (Triple triple : plain.find().toList()) {
+      for (int bound = 0; bound < 8; bound++) {
+        Node s = (bound & 1) != 0 ? triple.getSubject() : Node.ANY;
+        Node p = (bound & 2) != 0 ? triple.getPredicate() : Node.ANY;
+        Node o = (bound & 4) != 0 ? triple.getObject() : Node.ANY;
+
+        assertEquals(Triple.create(s, p, o).toString(), Set.copyOf(plain.find(s, p, o).toList()), Set.copyOf(compact.find(s, p, o).toList()));
+      }
+    }
+
+    // A node that is not in the graph
+    Node unknown = NodeFactory.createURI("http://hl7.org/fhir/Patient/unknown");
+    assertFalse(compact.find(unknown, Node.ANY, Node.ANY).hasNext());
+    assertFalse(compact.find(Node.ANY, Node.ANY, unknown).hasNext());
+  }
+
+  @Test
+  public void matchesLiteralsByTerm() {
+    Node subject = NodeFactory.createURI("http://hl7.org/fhir/Observation/1");
+    Node predicate = NodeFactory.createURI("http://hl7.org/fhir/value");
+
+    Graph plain = GraphFactory.createDefaultGraph();
+    plain.add(Triple.create(subject, predicate, NodeFactory.createLiteral("1", XSDDatatype.XSDint)));
+
+    CompactGraph compact = CompactGraph.of(plain);
+
+    assertTrue(compact.contains(subject, predicate, NodeFactory.createLiteral("1", XSDDatatype.XSDint)));
+    assertFalse(compact.contains(subject, predicate, NodeFactory.createLiteral("01", XSDDatatype.XSDint)));
+  }
+
+  @Test
+  public void isReadOnly() {
+    Graph plain = GraphFactory.createDefaultGraph();
+    Node subject = NodeFactory.createURI("http://hl7.org/fhir/Patient/1");
+    plain.add(Triple.create(subject, NodeFactory.createURI("http://hl7.org/fhir/active"), NodeFactory.createLiteral("true", XSDDatatype.XSDboolean)));
+
+    Graph readOnly = CompactGraph.readOnly(plain);
+    assertTrue(readOnly instanceof CompactGraph);
+
+    try {
+      readOnly.add(Triple.create(subject, subject, subject));
+      fail("Expected the graph to be read-only");
+    } catch (AddDeniedException e) {
+      // Expected
+    }
+    assertEquals(1, readOnly.size());
+  }
+
+}
@@ -0,0 +1,141 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.Maps;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jena.rdf.model.Model;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConversionCacheTest {
+
+  private static FhirRdfConverter converter;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void createConverter() {
+    converter = new FhirRdfConverter(Fixtures.config());
+  }
+
+  @AfterClass
+  public static void closeConverter() {
+    converter.close();
+  }
+
+  @Test
+  public void keysResourcesByContentAndOptions() {
+    ConversionCache cache = new ConversionCache(1000, null);
+    ConverterConfig config = Fixtures.config();
+
+    Map<String, Object> patient = Maps.newLinkedHashMap();
+    patient.put("resourceType", "Patient");
+    patient.put("id", "1");
+    patient.put("name", List.of(Map.of("family", "Chalmers")));
+
+    Map<String, Object> reordered = Maps.newLinkedHashMap();
+    reordered.put("name", List.of(Map.of("family", "Chalmers")));
+    reordered.put("id", "1");
+    reordered.put("resourceType", "Patient");
+
+    assertEquals(cache.getKey(patient, config), cache.getKey(reordered, config));
+
+    Map<String, Object> other = Maps.newLinkedHashMap(patient);
+    other.put("id", "2");
+
+    assertNotEquals(cache.getKey(patient, config), cache.getKey(other, config));
+    assertNotEquals(cache.getKey(patient, config), cache.getKey(patient, config.withAddContext(false)));
+  }
+
+  @Test
+  public void convertsEachResourceOnce() throws Exception {
+    ConversionCache cache = new ConversionCache(1000, null);
+    AtomicInteger conversions = new AtomicInteger();
+
+    Model first = cache.get("1", convert(Fixtures.patient("1"), conversions));
+    Model second = cache.get("1", convert(Fixtures.patient("1"), conversions));
+
+    assertSame(first, second);
+    assertEquals(1, conversions.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void sharesConversionsThroughTheDirectory() throws Exception {
+    File directory = this.folder.newFolder("cache");
+    AtomicInteger conversions = new AtomicInteger();
+
+    ConversionCache first = new ConversionCache(1000, directory);
+    String key = first.getKey(converter.readJson(new ByteArrayInputStream(Fixtures.bytes(Fixtures.patient("1")))), Fixtures.config());
+    Model converted = first.get(key, convert(Fixtures.patient("1"), conversions));
+
+    // As in a later run
+    ConversionCache cache = new ConversionCache(1000, directory);
+    Model read = cache.get(key, convert(Fixtures.patient("1"), conversions));
+
+    assertEquals(1, conversions.get());
+    assertTrue(converted.isIsomorphicWith(read));
+    assertEquals(1, cache.getDirectoryHits());
+    assertEquals(0, cache.getMisses());
+
+    // Only the entry is left in the directory
+    assertEquals(1, directory.list().length);
+  }
+
+  @Test
+  public void rethrowsAFailedConversion() throws Exception {
+    ConversionCache cache = new ConversionCache(1000, null);
+
+    try {
+      cache.get("1", () -> {
+        throw new IOException("Unreadable");
+      });
+      fail("Expected the conversion's failure");
+    } catch (IOException e) {
+      assertEquals("Unreadable", e.getMessage());
+    }
+
+    // Failures are not cached
+    AtomicInteger conversions = new AtomicInteger();
+    cache.get("1", convert(Fixtures.patient("1"), conversions));
+    assertEquals(1, conversions.get());
+  }
+
+  @Test
+  public void isUsedByTheConverter() throws Exception {
+    try (FhirRdfConverter cached = new FhirRdfConverter(Fixtures.config().withCache(10000, null))) {
+      Model first = cached.convert(Fixtures.bytes(Fixtures.patient("1")));
+      // The same resource, with its keys in another order
+      Model second = cached.convert(Fixtures.bytes("{\"id\": \"1\", \"birthDate\": \"1974-12-25\", \"resourceType\": \"Patient\","
+          + " \"name\": [{\"given\": [\"Peter\", \"James\"], \"family\": \"Chalmers\"}], \"active\": true}"));
+
+      assertTrue(first.isIsomorphicWith(second));
+      assertEquals(1, cached.getConversionCache().getHits());
+      assertEquals(1, cached.getConversionCache().getMisses());
+    }
+  }
+
+  private static Callable<Model> convert(String resource, AtomicInteger conversions) {
+    return () -> {
+      conversions.incrementAndGet();
+      return converter.convert(Fixtures.bytes(resource));
+    };
+  }
+
+}
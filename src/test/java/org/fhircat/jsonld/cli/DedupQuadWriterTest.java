@@ -0,0 +1,126 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DedupQuadWriterTest {
+
+  // Spills a run after every resource
+  private static final long SPILL_ALWAYS = 1;
+
+  private static final long SPILL_NEVER = Long.MAX_VALUE;
+
+  private static FhirRdfConverter converter;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void createConverter() {
+    converter = new FhirRdfConverter(Fixtures.config());
+  }
+
+  @AfterClass
+  public static void closeConverter() {
+    converter.close();
+  }
+
+  @Test
+  public void dropsTheQuadsOfAResourceConvertedTwice() throws Exception {
+    // Each conversion has its own blank nodes
+    File once = this.write("once.nq", SPILL_NEVER, Fixtures.patient("1"), Fixtures.observation("1"));
+    File twice = this.write("twice.nq", SPILL_NEVER, Fixtures.patient("1"), Fixtures.observation("1"), Fixtures.patient("1"));
+
+    assertEquals(read(once), read(twice));
+  }
+
+  @Test
+  public void dropsDuplicatesAcrossSpilledRuns() throws Exception {
+    File inMemory = this.write("memory.nq", SPILL_NEVER, Fixtures.patient("1"), Fixtures.patient("2"));
+    File spilled = this.write("spilled.nq", SPILL_ALWAYS,
+        Fixtures.patient("1"), Fixtures.patient("2"), Fixtures.patient("1"), Fixtures.patient("2"));
+
+    List<String> quads = read(spilled);
+    assertEquals(read(inMemory), quads);
+
+    // Sorted, and unique
+    List<String> sorted = Lists.newArrayList(quads);
+    sorted.sort(null);
+    assertEquals(sorted, quads);
+    assertEquals(quads.size(), quads.stream().distinct().count());
+
+    // One named graph per resource, and the runs are gone
+    Dataset dataset = DatasetFactory.create();
+    RDFDataMgr.read(dataset, spilled.getPath());
+    assertEquals(2, Lists.newArrayList(dataset.listNames()).size());
+
+    assertArrayEquals(new String[] { "memory.nq", "spilled.nq" }, sortedNames(this.folder.getRoot()));
+  }
+
+  @Test
+  public void mergesMoreRunsThanItOpensAtOnce() throws Exception {
+    String[] resources = new String[150];
+    for (int i = 0; i < resources.length; i++) {
+      resources[i] = Fixtures.patient(String.valueOf(i % 100));
+    }
+
+    File inMemory = this.write("memory.nq", SPILL_NEVER, resources);
+    File spilled = this.write("spilled.nq", SPILL_ALWAYS, resources);
+
+    assertEquals(read(inMemory), read(spilled));
+  }
+
+  @Test
+  public void abortLeavesNoOutput() throws Exception {
+    DedupQuadWriter writer = new DedupQuadWriter(new File(this.folder.getRoot(), "aborted.nq"), SPILL_ALWAYS);
+    writer.load(converter.convert(Fixtures.bytes(Fixtures.patient("1"))));
+    writer.load(converter.convert(Fixtures.bytes(Fixtures.patient("2"))));
+    writer.abort();
+
+    assertEquals(0, this.folder.getRoot().list().length);
+  }
+
+  private File write(String name, long memoryLimit, String... resources) throws Exception {
+    File output = new File(this.folder.getRoot(), name);
+
+    DedupQuadWriter writer = new DedupQuadWriter(output, memoryLimit);
+    for (String resource : resources) {
+      Model model = converter.convert(Fixtures.bytes(resource));
+      writer.load(model);
+    }
+    writer.close();
+
+    assertTrue(output.isFile());
+
+    return output;
+  }
+
+  private static List<String> read(File file) throws Exception {
+    return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+  }
+
+  private static String[] sortedNames(File directory) {
+    String[] names = directory.list();
+    Arrays.sort(names);
+
+    return names;
+  }
+
+}
@@ -0,0 +1,52 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FhirRdfConverterTest {
+
+  private static FhirRdfConverter converter;
+
+  @BeforeClass
+  public static void createConverter() {
+    converter = new FhirRdfConverter(Fixtures.config());
+  }
+
+  @AfterClass
+  public static void closeConverter() {
+    converter.close();
+  }
+
+  @Test
+  public void writesRdfThriftThatReadsBack() throws Exception {
+    assertReadsBack("RDF-THRIFT", Lang.RDFTHRIFT);
+  }
+
+  @Test
+  public void writesRdfProtobufThatReadsBack() throws Exception {
+    assertReadsBack("RDF-PROTO", Lang.RDFPROTO);
+  }
+
+  private static void assertReadsBack(String outputFormat, Lang lang) throws Exception {
+    Model model = converter.convert(Fixtures.bytes(Fixtures.patient("1")));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FhirRdfConverter.write(model, out, outputFormat);
+
+    Model read = ModelFactory.createDefaultModel();
+    RDFDataMgr.read(read, new ByteArrayInputStream(out.toByteArray()), lang);
+
+    assertTrue(read.size() > 0);
+    assertTrue(model.isIsomorphicWith(read));
+  }
+
+}
@@ -0,0 +1,218 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FhirRdfProcessorTest {
+
+  private static final int RESOURCES = 6;
+
+  private static FhirRdfConverter converter;
+
+  @BeforeClass
+  public static void createConverter() {
+    converter = new FhirRdfConverter(Fixtures.config());
+  }
+
+  @AfterClass
+  public static void closeConverter() {
+    converter.close();
+  }
+
+  @Test
+  public void deliversInInputOrderWhenOrdered() throws Exception {
+    // The conversions complete last to first
+    Results results = run(new FhirRdfProcessor(converter, new ReversingExecutor(RESOURCES), RESOURCES, true), resources());
+
+    assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L), results.sequences());
+    assertTrue(results.completed);
+  }
+
+  @Test
+  public void deliversAsCompletedWhenUnordered() throws Exception {
+    Results results = run(new FhirRdfProcessor(converter, new ReversingExecutor(RESOURCES), RESOURCES, false), resources());
+
+    assertEquals(List.of(5L, 4L, 3L, 2L, 1L, 0L), results.sequences());
+    assertTrue(results.completed);
+  }
+
+  @Test
+  public void deliversAFailedConversionAsAResult() throws Exception {
+    List<byte[]> resources = resources();
+    resources.set(2, Fixtures.bytes("{\"resourceType\": \"Patient\", \"id\": "));
+
+    Results results = run(new FhirRdfProcessor(converter, Runnable::run, 2, true), resources);
+
+    assertEquals(RESOURCES, results.received.size());
+    for (ConversionResult result : results.received) {
+      assertEquals(result.getSequence() != 2, result.isSuccess());
+    }
+    assertTrue(results.received.get(0).getModel().size() > 0);
+
+    // The stream carries on past the failure
+    assertTrue(results.completed);
+    assertNull(results.error);
+  }
+
+  @Test
+  public void requestsNoMoreThanItsParallelismAheadOfDemand() {
+    FhirRdfProcessor processor = new FhirRdfProcessor(converter, Runnable::run, 2, true);
+
+    // Downstream asks for nothing: the first two are converted, and held
+    processor.subscribe(new Results(0));
+
+    AtomicLong requested = new AtomicLong();
+    processor.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+        requested.addAndGet(n);
+      }
+
+      @Override
+      public void cancel() { }
+    });
+
+    processor.onNext(Fixtures.bytes(Fixtures.patient("1")));
+    processor.onNext(Fixtures.bytes(Fixtures.patient("2")));
+
+    assertEquals(2, requested.get());
+  }
+
+  @Test
+  public void endsTheStreamWithAnErrorOnARejectedConversion() throws Exception {
+    Executor rejecting = task -> {
+      throw new RejectedExecutionException("Shut down");
+    };
+
+    Results results = run(new FhirRdfProcessor(converter, rejecting, 2, true), resources());
+
+    assertTrue(results.error instanceof RejectedExecutionException);
+    assertFalse(results.completed);
+  }
+
+  private static List<byte[]> resources() {
+    List<byte[]> resources = Lists.newArrayList();
+    for (int i = 0; i < RESOURCES; i++) {
+      resources.add(Fixtures.bytes(i % 2 == 0 ? Fixtures.patient("p" + i) : Fixtures.observation("o" + i)));
+    }
+
+    return resources;
+  }
+
+  /**
+   * Publishes <code>resources</code> to <code>processor</code>, as far as it requests them, and collects its results.
+   */
+  private static Results run(FhirRdfProcessor processor, List<byte[]> resources) throws InterruptedException {
+    Results results = new Results(Long.MAX_VALUE);
+    processor.subscribe(results);
+
+    AtomicLong requested = new AtomicLong();
+    processor.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+        requested.addAndGet(n);
+      }
+
+      @Override
+      public void cancel() {
+        requested.set(Long.MIN_VALUE);
+      }
+    });
+
+    for (byte[] resource : resources) {
+      if (requested.getAndDecrement() <= 0) {
+        break;
+      }
+      processor.onNext(resource);
+    }
+    processor.onComplete();
+
+    assertTrue(results.done.await(1, TimeUnit.MINUTES));
+
+    return results;
+  }
+
+  private static class Results implements Flow.Subscriber<ConversionResult> {
+
+    private final long demand;
+
+    private final List<ConversionResult> received = Lists.newCopyOnWriteArrayList();
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile boolean completed = false;
+
+    private volatile Throwable error;
+
+    Results(long demand) {
+      this.demand = demand;
+    }
+
+    List<Long> sequences() {
+      return this.received.stream().map(ConversionResult::getSequence).collect(Collectors.toList());
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      if (this.demand > 0) {
+        subscription.request(this.demand);
+      }
+    }
+
+    @Override
+    public void onNext(ConversionResult result) {
+      this.received.add(result);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      this.error = throwable;
+      this.done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      this.completed = true;
+      this.done.countDown();
+    }
+  }
+
+  /**
+   * Holds tasks until <code>count</code> are submitted, then runs them last to first.
+   */
+  private static class ReversingExecutor implements Executor {
+
+    private final int count;
+
+    private final List<Runnable> tasks = Lists.newArrayList();
+
+    ReversingExecutor(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      this.tasks.add(task);
+
+      if (this.tasks.size() == this.count) {
+        Lists.reverse(this.tasks).forEach(Runnable::run);
+      }
+    }
+  }
+
+}
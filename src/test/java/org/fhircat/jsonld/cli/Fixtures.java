@@ -0,0 +1,46 @@
+package org.fhircat.jsonld.cli;
+
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Configuration and FHIR resources shared by the conversion tests. The JSON-LD contexts are test resources, so that
+ * no test loads them over HTTP.
+ */
+final class Fixtures {
+
+  private Fixtures() { }
+
+  static ConverterConfig config() {
+    return ConverterConfig.defaults().withContextServer(Fixtures.class.getClassLoader().getResource("contexts/").toString());
+  }
+
+  static String patient(String id) {
+    return "{\"resourceType\": \"Patient\", \"id\": \"" + id + "\", \"active\": true,"
+        + " \"name\": [{\"family\": \"Chalmers\", \"given\": [\"Peter\", \"James\"]}], \"birthDate\": \"1974-12-25\"}";
+  }
+
+  static String observation(String id) {
+    return "{\"resourceType\": \"Observation\", \"id\": \"" + id + "\", \"status\": \"final\","
+        + " \"code\": {\"coding\": [{\"system\": \"http://loinc.org\", \"code\": \"29463-7\"}]},"
+        + " \"subject\": {\"reference\": \"Patient/" + id + "\"}, \"valueQuantity\": {\"value\": 72.5, \"unit\": \"kg\"}}";
+  }
+
+  /**
+   * A collection Bundle of <code>entries</code> Patients and Observations, alternately.
+   */
+  static String bundle(String id, int entries) {
+    return "{\"resourceType\": \"Bundle\", \"id\": \"" + id + "\", \"type\": \"collection\", \"entry\": ["
+        + IntStream.range(0, entries)
+            .mapToObj(i -> "{\"fullUrl\": \"http://hl7.org/fhir/" + (i % 2 == 0 ? "Patient/e" : "Observation/e") + i + "\","
+                + " \"resource\": " + (i % 2 == 0 ? patient("e" + i) : observation("e" + i)) + "}")
+            .collect(Collectors.joining(", "))
+        + "]}";
+  }
+
+  static byte[] bytes(String json) {
+    return json.getBytes(StandardCharsets.UTF_8);
+  }
+
+}
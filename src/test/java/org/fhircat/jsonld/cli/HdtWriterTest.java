@@ -0,0 +1,121 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.AnonId;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rdfhdt.hdt.hdt.HDT;
+import org.rdfhdt.hdt.hdt.HDTManager;
+import org.rdfhdt.hdt.triples.IteratorTripleString;
+import org.rdfhdt.hdt.triples.TripleString;
+
+public class HdtWriterTest {
+
+  private static final String BASE_URI = "http://hl7.org/fhir/";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void writesTheTriplesOfAllResources() throws Exception {
+    File output = new File(this.folder.getRoot(), "run.hdt");
+
+    HdtWriter writer = new HdtWriter(output, BASE_URI);
+    writer.load(patient("1"));
+    writer.load(patient("2"));
+    writer.close();
+
+    Set<String> expected = new TreeSet<>();
+    expected.addAll(triples("1"));
+    expected.addAll(triples("2"));
+
+    try (HDT hdt = HDTManager.loadHDT(output.getPath())) {
+      assertEquals(expected, toStrings(hdt));
+    }
+
+    // Only the output is left
+    assertArrayEquals(new String[] { "run.hdt" }, this.folder.getRoot().list());
+  }
+
+  @Test
+  public void writesOneModel() throws Exception {
+    File output = new File(this.folder.getRoot(), "one.hdt");
+
+    try (OutputStream out = new FileOutputStream(output)) {
+      HdtWriter.write(patient("1"), out, BASE_URI);
+    }
+
+    try (HDT hdt = HDTManager.loadHDT(output.getPath())) {
+      assertEquals(triples("1"), toStrings(hdt));
+    }
+  }
+
+  @Test
+  public void abortWritesNoOutput() throws Exception {
+    File output = new File(this.folder.getRoot(), "aborted.hdt");
+
+    HdtWriter writer = new HdtWriter(output, BASE_URI);
+    writer.load(patient("1"));
+    writer.abort();
+
+    assertFalse(output.exists());
+    assertEquals(0, this.folder.getRoot().list().length);
+  }
+
+  private static Model patient(String id) {
+    Model model = ModelFactory.createDefaultModel();
+
+    Resource patient = model.createResource(BASE_URI + "Patient/" + id);
+    Resource name = model.createResource(AnonId.create("name" + id));
+
+    model.add(patient, model.createProperty(BASE_URI, "nodeRole"), model.createResource(BASE_URI + "treeRoot"));
+    model.add(patient, model.createProperty(BASE_URI, "Patient.active"), model.createTypedLiteral("true", XSDDatatype.XSDboolean));
+    model.add(patient, model.createProperty(BASE_URI, "Patient.name"), name);
+    model.add(name, model.createProperty(BASE_URI, "HumanName.family"), model.createLiteral("Chalmers " + id));
+    model.add(name, model.createProperty(BASE_URI, "HumanName.text"), model.createLiteral("Peter " + id, "en"));
+
+    return model;
+  }
+
+  /**
+   * The triples of {@link #patient(String)}, as HDT reads them back.
+   */
+  private static Set<String> triples(String id) {
+    String patient = BASE_URI + "Patient/" + id;
+    String name = "_:name" + id;
+
+    return new TreeSet<>(List.of(
+        patient + " " + BASE_URI + "nodeRole " + BASE_URI + "treeRoot",
+        patient + " " + BASE_URI + "Patient.active \"true\"^^<http://www.w3.org/2001/XMLSchema#boolean>",
+        patient + " " + BASE_URI + "Patient.name " + name,
+        name + " " + BASE_URI + "HumanName.family \"Chalmers " + id + "\"",
+        name + " " + BASE_URI + "HumanName.text \"Peter " + id + "\"@en"));
+  }
+
+  private static Set<String> toStrings(HDT hdt) throws Exception {
+    Set<String> triples = new TreeSet<>();
+
+    IteratorTripleString iterator = hdt.search("", "", "");
+    while (iterator.hasNext()) {
+      TripleString triple = iterator.next();
+      triples.add(triple.getSubject() + " " + triple.getPredicate() + " " + triple.getObject());
+    }
+
+    return triples;
+  }
+
+}
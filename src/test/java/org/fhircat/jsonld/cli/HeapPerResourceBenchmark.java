@@ -0,0 +1,114 @@
+package org.fhircat.jsonld.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import jakarta.json.Json;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Measures the heap retained per resource by FHIR JSON as read, and as preprocessed: it keeps <code>count</code>
+ * copies of each file and compares the used heap after GC. Each is measured with the JSON read as {@link CompactObject}s
+ * (as the converter reads it) and as Jackson's default maps, as it was read before them. Preprocessing creates compact
+ * value nodes either way, so for preprocessed JSON the default maps understate what it took before: run this against
+ * an earlier build for that.
+ *
+ * The hand-off to the JSON-LD processor is measured as the preprocessed JSON together with what it is handed as:
+ * the {@link JsonView} the converter uses, or a copy into Jakarta JSON objects, as it was handed before. This is the
+ * heap that a resource holds at its peak, before JSON-LD expansion.
+ *
+ * Run with the test classpath, for example:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.fhircat.jsonld.cli.HeapPerResourceBenchmark -Dexec.args="1000 Patient.json"
+ * </pre>
+ */
+public class HeapPerResourceBenchmark {
+
+  private static final int WARMUP = 3;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: HeapPerResourceBenchmark <count> <FHIR JSON file>...");
+      System.exit(1);
+    }
+
+    int count = Integer.parseInt(args[0]);
+
+    ObjectMapper defaultMapper = new ObjectMapper();
+
+    try (FhirRdfConverter converter = new FhirRdfConverter(ConverterConfig.defaults())) {
+      for (int i = 1; i < args.length; i++) {
+        File file = new File(args[i]);
+
+        Reader compact = converter::readJson;
+        Reader maps = json -> defaultMapper.readValue(json, Map.class);
+
+        System.out.println(String.format("%s (%d bytes), %d copies:", file.getName(), file.length(), count));
+        System.out.println(String.format("  read:         %s compact, %s default maps",
+            format(measure(file, count, compact, Function.identity())), format(measure(file, count, maps, Function.identity()))));
+        System.out.println(String.format("  preprocessed: %s compact, %s default maps",
+            format(measure(file, count, compact, converter::preprocess)), format(measure(file, count, maps, converter::preprocess))));
+        System.out.println(String.format("  handed off:   %s viewed, %s copied",
+            format(measure(file, count, compact, converter::preprocess, JsonView::of)),
+            format(measure(file, count, compact, converter::preprocess, json -> Json.createObjectBuilder(json).build()))));
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface Reader {
+    Map<String, Object> read(File json) throws IOException;
+  }
+
+  /**
+   * The heap retained per copy, in bytes.
+   */
+  private static double measure(File file, int count, Reader reader, Function<Map<String, Object>, Map<String, Object>> stage)
+      throws IOException {
+    return measure(file, count, reader, stage, json -> null);
+  }
+
+  /**
+   * The heap retained per copy by the JSON after <code>stage</code>, and what <code>handOff</code> makes of it, in bytes.
+   */
+  private static double measure(File file, int count, Reader reader, Function<Map<String, Object>, Map<String, Object>> stage,
+      Function<Map<String, Object>, Object> handOff) throws IOException {
+    for (int i = 0; i < WARMUP; i++) {
+      handOff.apply(stage.apply(reader.read(file)));
+    }
+
+    List<Object> kept = Lists.newArrayListWithCapacity(count * 2);
+
+    long before = usedHeapAfterGc();
+    for (int i = 0; i < count; i++) {
+      Map<String, Object> json = stage.apply(reader.read(file));
+      kept.add(json);
+      kept.add(handOff.apply(json));
+    }
+    long after = usedHeapAfterGc();
+
+    if (kept.size() != count * 2) {
+      throw new IllegalStateException();
+    }
+
+    return (after - before) / (double) count;
+  }
+
+  private static String format(double bytes) {
+    return bytes >= 1024 * 1024 ? String.format("%.1f MB", bytes / 1024 / 1024) : String.format("%.1f KB", bytes / 1024);
+  }
+
+  private static long usedHeapAfterGc() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+}
@@ -0,0 +1,108 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InputFinderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File root;
+
+  @Before
+  public void createInputs() throws Exception {
+    this.root = this.folder.newFolder("inputs");
+
+    for (String path : new String[] { "a.json", "notes.txt", "sub/b.ndjson", "sub/deep/c.json.gz", "skip/d.json" }) {
+      File file = new File(this.root, path);
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+    }
+  }
+
+  @Test
+  public void findsSupportedFilesRecursively() throws Exception {
+    InputFinder inputs = new InputFinder(this.root, RecordReader::isSupported, List.of(), List.of());
+
+    assertFalse(inputs.isSingleFile());
+    assertFalse(inputs.isList());
+    assertEquals(Set.of("a.json", "sub/b.ndjson", "sub/deep/c.json.gz", "skip/d.json"), Set.copyOf(relativePaths(inputs)));
+
+    // Each found file is the one named by its relative path
+    inputs.forEach(input -> assertEquals(new File(this.root, input.getRelativePath()), input.getFile()));
+  }
+
+  @Test
+  public void matchesGlobsAgainstNamesOrRelativePaths() throws Exception {
+    assertEquals(Set.of("a.json", "skip/d.json"), this.find(List.of("*.json"), List.of()));
+    assertEquals(Set.of("sub/b.ndjson", "sub/deep/c.json.gz"), this.find(List.of("sub/**"), List.of()));
+    assertEquals(Set.of("sub/deep/c.json.gz"), this.find(List.of("*/*/*"), List.of()));
+
+    // An excluded directory is not walked
+    assertEquals(Set.of("a.json", "sub/b.ndjson", "sub/deep/c.json.gz"), this.find(List.of(), List.of("skip")));
+    assertEquals(Set.of("sub/b.ndjson"), this.find(List.of(), List.of("deep", "*.json")));
+    assertEquals(Set.of("a.json"), this.find(List.of("*.json"), List.of("skip/*")));
+  }
+
+  @Test
+  public void passesASingleFileOnUnderItsName() throws Exception {
+    InputFinder inputs = new InputFinder(new File(this.root, "sub/b.ndjson"), RecordReader::isSupported, List.of(), List.of());
+
+    assertTrue(inputs.isSingleFile());
+    assertEquals(List.of("b.ndjson"), relativePaths(inputs));
+  }
+
+  @Test
+  public void findsTheListedFilesAndDirectoriesInOrder() throws Exception {
+    // Listed relative to the working directory, but outside it
+    Path listedRoot = Paths.get("").toAbsolutePath().relativize(this.root.toPath());
+    assertTrue(listedRoot.startsWith(".."));
+
+    File manifest = this.folder.newFile("inputs.txt");
+    Files.write(manifest.toPath(), List.of(
+        "# Inputs",
+        this.root.toPath().resolve("sub").toString(),
+        "",
+        "  " + listedRoot.resolve("a.json") + "  ",
+        listedRoot.resolve("notes.txt").toString()), StandardCharsets.UTF_8);
+
+    InputFinder inputs = new InputFinder(new File("@" + manifest.getPath()), RecordReader::isSupported, List.of(), List.of("c.*"));
+
+    assertTrue(inputs.isList());
+    assertFalse(inputs.readsStandardInput());
+    assertEquals(manifest.getPath(), InputFinder.getManifest(new File("@" + manifest.getPath())));
+
+    // Paths outside the working directory are named after their absolute path
+    Path absoluteRoot = this.root.toPath().toAbsolutePath();
+    Path named = absoluteRoot.getRoot().relativize(absoluteRoot);
+
+    assertEquals(List.of(named.resolve("sub/b.ndjson").toString(), named.resolve("a.json").toString()), relativePaths(inputs));
+  }
+
+  private Set<String> find(List<String> includes, List<String> excludes) throws Exception {
+    return Set.copyOf(relativePaths(new InputFinder(this.root, RecordReader::isSupported, includes, excludes)));
+  }
+
+  private static List<String> relativePaths(InputFinder inputs) throws Exception {
+    List<String> paths = Lists.newArrayList();
+    inputs.forEach(input -> paths.add(input.getRelativePath()));
+
+    return paths;
+  }
+
+}
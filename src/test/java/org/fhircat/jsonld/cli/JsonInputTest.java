@@ -0,0 +1,92 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.rdf.model.Model;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JsonInputTest {
+
+  // Two-, three- and four-byte UTF-8 sequences (escaped, as the sources have no declared encoding)
+  private static final String FAMILY = "Zo\u00eb \u00c5ngstr\u00f6m \u5c71\u7530 \ud83d\ude00";
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsUtf8() throws Exception {
+    File file = this.write("patient.json", patient(FAMILY, ""));
+
+    assertEquals(FAMILY, family(JsonInput.read(this.objectMapper, file, Map.class)));
+  }
+
+  @Test
+  public void readsFilesLargerThanTheBuffer() throws Exception {
+    // Larger than the initial buffer, then larger than the pooled limit, so streamed
+    for (int size : new int[] { 100 * 1024, JsonInput.POOLED_LIMIT, JsonInput.POOLED_LIMIT + 1024 }) {
+      String padding = StringUtils.repeat('\u00fc', size / 2);
+      File file = this.write("large.json", patient(FAMILY, padding));
+
+      Map<?, ?> read = JsonInput.read(this.objectMapper, file, Map.class);
+      assertEquals(FAMILY, family(read));
+      assertEquals(padding, read.get("padding"));
+    }
+
+    // A small file after a large one, in the (now larger) buffer of this thread
+    File file = this.write("small.json", patient("Chalmers", ""));
+    Map<?, ?> read = JsonInput.read(this.objectMapper, file, Map.class);
+    assertEquals("Chalmers", family(read));
+    assertEquals("", read.get("padding"));
+  }
+
+  @Test
+  public void opensAByteStream() throws Exception {
+    File file = this.write("patient.json", patient(FAMILY, ""));
+
+    try (InputStream in = JsonInput.open(file)) {
+      assertArrayEquals(Files.readAllBytes(file.toPath()), in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void convertsNonAsciiContent() throws Exception {
+    File file = this.write("patient.json", patient(FAMILY, ""));
+
+    try (FhirRdfConverter converter = new FhirRdfConverter(Fixtures.config())) {
+      Model model = converter.convert(converter.readJson(file));
+
+      assertTrue(model.getGraph().find().toList().stream()
+          .anyMatch(triple -> triple.getObject().isLiteral() && FAMILY.equals(triple.getObject().getLiteralLexicalForm())));
+    }
+  }
+
+  private File write(String name, String json) throws Exception {
+    File file = new File(this.folder.getRoot(), name);
+    Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+    return file;
+  }
+
+  private static String patient(String family, String padding) {
+    return "{\"resourceType\": \"Patient\", \"id\": \"1\", \"name\": [{\"family\": \"" + family + "\"}], \"padding\": \"" + padding + "\"}";
+  }
+
+  private static String family(Map<?, ?> patient) {
+    return (String) ((Map<?, ?>) ((List<?>) patient.get("name")).get(0)).get("family");
+  }
+
+}
@@ -0,0 +1,52 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+import java.util.Map;
+import org.junit.Test;
+
+public class JsonViewTest {
+
+  private static final String JSON = "{\"resourceType\": \"Patient\", \"active\": true, \"deceased\": false,"
+      + " \"multipleBirth\": 2, \"weight\": 72.5, \"big\": 12345678901, \"photo\": null,"
+      + " \"name\": [{\"family\": \"Chalmers\", \"given\": [\"Peter\", \"James\"]}], \"meta\": {}}";
+
+  @Test
+  public void viewsTheTreeAsACopyWouldRead() throws Exception {
+    Map<String, Object> tree = read();
+
+    JsonObject view = JsonView.of(tree);
+    JsonObject copy = Json.createObjectBuilder(tree).build();
+
+    assertEquals(copy, view);
+    assertEquals(view, copy);
+    assertEquals(copy.toString(), view.toString());
+  }
+
+  @Test
+  public void readsTypedValues() throws Exception {
+    JsonObject view = JsonView.of(read());
+
+    assertEquals("Patient", view.getString("resourceType"));
+    assertEquals("none", view.getString("absent", "none"));
+    assertTrue(view.getBoolean("active"));
+    assertEquals(2, view.getInt("multipleBirth"));
+    assertEquals(12345678901L, view.getJsonNumber("big").longValue());
+    assertTrue(view.isNull("photo"));
+    assertEquals(JsonValue.ValueType.NULL, view.get("photo").getValueType());
+    assertNull(view.get("absent"));
+    assertEquals("James", view.getJsonArray("name").getJsonObject(0).getJsonArray("given").getString(1));
+    assertTrue(view.getJsonObject("meta").isEmpty());
+  }
+
+  private static Map<String, Object> read() throws Exception {
+    return new ObjectMapper().registerModule(CompactObject.MODULE).readValue(JSON, Map.class);
+  }
+
+}
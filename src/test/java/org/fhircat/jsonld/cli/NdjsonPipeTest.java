@@ -0,0 +1,192 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class NdjsonPipeTest {
+
+  private static final Pattern PATIENT_RE = Pattern.compile("^<http://hl7.org/fhir/Patient/p(\\d+)> ", Pattern.MULTILINE);
+
+  private static FhirRdfConverter converter;
+
+  @BeforeClass
+  public static void createConverter() {
+    converter = new FhirRdfConverter(Fixtures.config());
+  }
+
+  @AfterClass
+  public static void closeConverter() {
+    converter.close();
+  }
+
+  @Test
+  public void writesResourcesInInputOrderWhenOrdered() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    new NdjsonPipe(converter, 4, true, 1, false).run(lines(patients(20)), out, new PrintStream(new ByteArrayOutputStream()));
+
+    // Each resource's triples are written together, in turn
+    List<Integer> order = Lists.newArrayList();
+    Matcher patients = PATIENT_RE.matcher(out.toString(StandardCharsets.UTF_8));
+    while (patients.find()) {
+      int id = Integer.parseInt(patients.group(1));
+      if (order.isEmpty() || order.get(order.size() - 1) != id) {
+        order.add(id);
+      }
+    }
+
+    assertEquals(IntStream.range(0, 20).boxed().collect(Collectors.toList()), order);
+  }
+
+  @Test
+  public void writesEveryResourceWhenUnordered() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    new NdjsonPipe(converter, 4, false, 5, false).run(lines(patients(20)), out, new PrintStream(new ByteArrayOutputStream()));
+
+    Model model = ModelFactory.createDefaultModel();
+    RDFDataMgr.read(model, new ByteArrayInputStream(out.toByteArray()), Lang.NTRIPLES);
+
+    for (int i = 0; i < 20; i++) {
+      assertTrue(model.containsResource(model.createResource("http://hl7.org/fhir/Patient/p" + i)));
+    }
+  }
+
+  @Test
+  public void writesOneNamedGraphPerResourceAsQuads() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    new NdjsonPipe(converter, 2, true, 1, true).run(lines(patients(3)), out, new PrintStream(new ByteArrayOutputStream()));
+
+    Dataset dataset = DatasetFactory.create();
+    RDFDataMgr.read(dataset, new ByteArrayInputStream(out.toByteArray()), Lang.NQUADS);
+
+    assertEquals(
+        List.of("http://hl7.org/fhir/Patient/p0", "http://hl7.org/fhir/Patient/p1", "http://hl7.org/fhir/Patient/p2"),
+        Lists.newArrayList(dataset.listNames()).stream().sorted().collect(Collectors.toList()));
+    assertTrue(dataset.getDefaultModel().isEmpty());
+  }
+
+  @Test
+  public void reportsAFailedResourceAsAnErrorRecord() throws Exception {
+    List<String> lines = patients(3);
+    lines.set(1, "{\"resourceType\": \"Patient\", \"id\": ");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    new NdjsonPipe(converter, 2, true, 1, false).run(lines(lines), out, new PrintStream(err, true, StandardCharsets.UTF_8));
+
+    String[] records = err.toString(StandardCharsets.UTF_8).split("\n");
+    assertEquals(1, records.length);
+
+    Map<?, ?> record = new ObjectMapper().readValue(records[0], Map.class);
+    assertEquals(2, record.get("record"));
+    assertFalse(record.containsKey("input"));
+    assertTrue(record.containsKey("error"));
+
+    // The other resources are written
+    String output = out.toString(StandardCharsets.UTF_8);
+    assertTrue(output.contains("<http://hl7.org/fhir/Patient/p0> "));
+    assertFalse(output.contains("<http://hl7.org/fhir/Patient/p1> "));
+    assertTrue(output.contains("<http://hl7.org/fhir/Patient/p2> "));
+  }
+
+  @Test
+  public void failsWhenTheOutputCannotBeWritten() throws Exception {
+    AtomicInteger writes = new AtomicInteger();
+    OutputStream closed = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        this.write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (writes.incrementAndGet() > 2) {
+          throw new IOException("Broken pipe");
+        }
+      }
+    };
+
+    try {
+      new NdjsonPipe(converter, 2, true, 1, false).run(lines(patients(20)), closed, new PrintStream(new ByteArrayOutputStream()));
+      fail("Expected the broken pipe");
+    } catch (IOException e) {
+      assertEquals("Broken pipe", e.getMessage());
+    }
+  }
+
+  @Test
+  public void failsWhenTheSinkFails() throws Exception {
+    AtomicInteger loaded = new AtomicInteger();
+    AtomicBoolean closed = new AtomicBoolean();
+
+    RdfSink sink = new RdfSink() {
+      @Override
+      public void load(Model model) {
+        if (loaded.incrementAndGet() > 2) {
+          throw new IllegalStateException("Disk full");
+        }
+      }
+
+      @Override
+      public String getFormat() {
+        return "TEST";
+      }
+
+      @Override
+      public void close() {
+        closed.set(true);
+      }
+    };
+
+    try {
+      new NdjsonPipe(converter, 2, true, 1, false, sink).run(lines(patients(20)), null, new PrintStream(new ByteArrayOutputStream()));
+      fail("Expected the sink's failure");
+    } catch (IllegalStateException e) {
+      assertEquals("Disk full", e.getMessage());
+    }
+
+    // Aborting (or closing) the sink is up to the caller
+    assertFalse(closed.get());
+  }
+
+  private static List<String> patients(int count) {
+    return IntStream.range(0, count).mapToObj(i -> Fixtures.patient("p" + i)).collect(Collectors.toList());
+  }
+
+  private static InputStream lines(List<String> lines) {
+    return new ByteArrayInputStream(Fixtures.bytes(String.join("\n", lines) + "\n"));
+  }
+
+}
@@ -0,0 +1,111 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class PreprocessTest {
+
+  private static final String CONTEXT_SERVER = "https://fhircat.org/fhir-r4/original/contexts/";
+
+  private static final String BUNDLE = "{\"resourceType\": \"Bundle\", \"id\": \"b\", \"type\": \"collection\", \"entry\": [{"
+      + "\"fullUrl\": \"http://example.org/fhir/Patient/p\", \"resource\": {\"resourceType\": \"Patient\", \"id\": \"p\","
+      + " \"contained\": [{\"resourceType\": \"Organization\", \"id\": \"o\"}], \"managingOrganization\": {\"reference\": \"#o\"},"
+      + " \"name\": [{\"family\": \"Chalmers\"}], \"birthDate\": \"1974-12\", \"text\": {\"status\": \"generated\", \"div\": \"<div/>\"}}}, {"
+      + "\"fullUrl\": \"http://example.org/fhir/Observation/o\", \"resource\": {\"resourceType\": \"Observation\", \"id\": \"o\","
+      + " \"code\": {\"coding\": [{\"system\": \"http://loinc.org\", \"code\": \"29463-7\"}]}, \"subject\": {\"reference\": \"Patient/p\"}}}]}";
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  public void resolvesIdsAndReferencesInBundles() throws Exception {
+    Map bundle = this.preprocess(BUNDLE);
+
+    assertEquals("fhir:Bundle", bundle.get("resourceType"));
+    assertEquals("Bundle/b", bundle.get("@id"));
+    assertEquals(Map.of("value", "b"), bundle.get("id"));
+
+    Map patient = this.entry(bundle, 0);
+    assertEquals("fhir:Patient", patient.get("resourceType"));
+    assertEquals("http://example.org/fhir/Patient/p", patient.get("@id"));
+    assertEquals(CONTEXT_SERVER + "patient.context.jsonld", patient.get("@context"));
+
+    // Contained resources are named after their container's type and id, and local references resolved to them
+    Map organization = (Map) ((List) patient.get("contained")).get(0);
+    assertEquals("Patient/p#o", organization.get("@id"));
+    assertEquals(0, organization.get("index"));
+    assertEquals(Map.of("@id", "Patient/p#o"), ((Map) patient.get("managingOrganization")).get("fhir:link"));
+
+    // References to other entries resolve to their full URLs
+    Map observation = this.entry(bundle, 1);
+    assertEquals(Map.of("@id", "http://example.org/fhir/Patient/p"), ((Map) observation.get("subject")).get("fhir:link"));
+  }
+
+  @Test
+  public void wrapsValuesAndTypesThem() throws Exception {
+    Map patient = this.entry(this.preprocess(BUNDLE), 0);
+
+    assertEquals(List.of(Map.of("family", Map.of("value", "Chalmers"), "index", 0)), patient.get("name"));
+    assertEquals(Map.of("value", Map.of("@value", "1974-12", "@type", "http://www.w3.org/2001/XMLSchema#gYearMonth")), patient.get("birthDate"));
+
+    // The narrative is not wrapped
+    assertEquals(Map.of("status", Map.of("value", "generated"), "div", "<div/>"), patient.get("text"));
+
+    // Codings get a type arc to their concept
+    Map coding = (Map) ((List) ((Map) this.entry(this.preprocess(BUNDLE), 1).get("code")).get("coding")).get(0);
+    assertEquals("loinc:29463-7", coding.get("@type"));
+  }
+
+  @Test
+  public void addsTheTreeRootHeaderAndContext() throws Exception {
+    Map bundle = this.preprocess(BUNDLE);
+
+    assertEquals("fhir:treeRoot", bundle.get("nodeRole"));
+    assertEquals(Map.of("@id", "Bundle/b.ttl", "@type", "owl:Ontology", "owl:imports", "fhir:fhir.ttl",
+        "owl:versionIRI", "http://build.fhir.org/Bundle/b.ttl"), bundle.get("@included"));
+
+    List context = (List) bundle.get("@context");
+    assertEquals(List.of(CONTEXT_SERVER + "bundle.context.jsonld", CONTEXT_SERVER + "root.context.jsonld"), context.subList(0, 2));
+    assertEquals("http://hl7.org/fhir/", ((Map) context.get(2)).get("@base"));
+
+    Map withoutContext = new Preprocess().toR4(this.objectMapper.readValue(BUNDLE, Map.class),
+        "http://build.fhir.org/", CONTEXT_SERVER, "http://hl7.org/fhir/", false);
+    assertEquals(CONTEXT_SERVER + "bundle.context.jsonld", withoutContext.get("@context"));
+  }
+
+  @Test
+  public void doesNotDependOnKeyOrder() throws Exception {
+    Map reversed = (Map) reverseKeys(this.objectMapper.readValue(BUNDLE, Map.class));
+
+    assertEquals(this.preprocess(BUNDLE), new Preprocess().toR4(reversed, "http://build.fhir.org/", CONTEXT_SERVER, "http://hl7.org/fhir/", true));
+  }
+
+  private Map preprocess(String json) throws Exception {
+    return new Preprocess().toR4(this.objectMapper.readValue(json, Map.class), "http://build.fhir.org/", CONTEXT_SERVER, "http://hl7.org/fhir/", true);
+  }
+
+  private Map entry(Map bundle, int index) {
+    return (Map) ((Map) ((List) bundle.get("entry")).get(index)).get("resource");
+  }
+
+  private static Object reverseKeys(Object json) {
+    if (json instanceof Map) {
+      Map<Object, Object> reversed = new LinkedHashMap<>();
+      Lists.reverse(Lists.newArrayList(((Map<?, ?>) json).entrySet()))
+          .forEach(entry -> reversed.put(entry.getKey(), reverseKeys(entry.getValue())));
+
+      return reversed;
+    } else if (json instanceof List) {
+      return ((List<?>) json).stream().map(PreprocessTest::reverseKeys).collect(Collectors.toList());
+    }
+
+    return json;
+  }
+
+}
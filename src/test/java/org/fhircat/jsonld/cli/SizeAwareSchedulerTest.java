@@ -0,0 +1,105 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class SizeAwareSchedulerTest {
+
+  private static final long KB = 1024;
+
+  @Test
+  public void startsTheLargestInputsFirst() {
+    List<String> started = Collections.synchronizedList(Lists.newArrayList());
+
+    Map<String, Long> sizes = Map.of("a", 10 * KB, "b", 300 * KB, "c", 20 * KB, "d", 300 * KB, "e", 5 * KB);
+
+    SizeAwareScheduler<String> scheduler = new SizeAwareScheduler<>(1, 1024 * KB, 1, sizes::get, started::add);
+    submitAll(scheduler, "a", "b", "c", "d", "e");
+    scheduler.awaitCompletion();
+
+    // Equal sizes in submission order
+    assertEquals(List.of("b", "d", "c", "a", "e"), started);
+  }
+
+  @Test
+  public void admitsInputsAgainstTheHeapBudget() {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger mostRunning = new AtomicInteger();
+
+    // Two inputs of 60 KB do not fit in 100 KB at once, and 1 MB is over the whole budget, but still runs
+    SizeAwareScheduler<Long> scheduler = new SizeAwareScheduler<>(4, 100 * KB, 1, size -> size, size -> {
+      mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      sleep(20);
+      running.decrementAndGet();
+    });
+    submitAll(scheduler, 60 * KB, 60 * KB, 1024 * KB, 60 * KB, 60 * KB);
+
+    SizeAwareScheduler.Summary summary = scheduler.awaitCompletion();
+
+    assertEquals(1, mostRunning.get());
+    assertTrue(summary.toString(), summary.toString().startsWith("Processed 5 inputs"));
+  }
+
+  @Test
+  public void runsSmallInputsConcurrently() {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger mostRunning = new AtomicInteger();
+
+    SizeAwareScheduler<Long> scheduler = new SizeAwareScheduler<>(4, 100 * KB, 1, size -> size, size -> {
+      mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      sleep(100);
+      running.decrementAndGet();
+    });
+    submitAll(scheduler, 10 * KB, 10 * KB, 10 * KB, 10 * KB);
+    scheduler.awaitCompletion();
+
+    assertTrue(String.valueOf(mostRunning.get()), mostRunning.get() > 1);
+  }
+
+  @Test
+  public void carriesOnAfterAFailedInput() {
+    List<String> done = Collections.synchronizedList(Lists.newArrayList());
+
+    SizeAwareScheduler<String> scheduler = new SizeAwareScheduler<>(2, 1024 * KB, 1, name -> KB, name -> {
+      if (name.equals("bad")) {
+        throw new IllegalStateException("Failed on purpose");
+      }
+      done.add(name);
+    });
+    scheduler.start();
+    submitAll(scheduler, "a", "bad", "b", "c");
+
+    SizeAwareScheduler.Summary summary = scheduler.awaitCompletion();
+
+    assertEquals(List.of("a", "b", "c"), done.stream().sorted().collect(Collectors.toList()));
+    assertTrue(summary.toString(), summary.toString().startsWith("Processed 4 inputs"));
+  }
+
+  @SafeVarargs
+  private static <T> void submitAll(SizeAwareScheduler<T> scheduler, T... items) {
+    try {
+      for (T item : items) {
+        scheduler.submit(item);
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Set;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.Test;
+
+public class SlicingValidatorTest {
+
+  @Test
+  public void widensTheSliceAsResourceTypesAreMet() {
+    List<Set<String>> slices = Lists.newArrayList();
+
+    SlicingValidator validator = new SlicingValidator(resourceTypes -> {
+      slices.add(resourceTypes);
+      return (model, errorHandler) -> true;
+    });
+
+    assertTrue(validator.validate(resource("Patient", "p1"), errors -> { }));
+    assertTrue(validator.validate(resource("Patient", "p2"), errors -> { }));
+    assertTrue(validator.validate(resource("Observation", "o1"), errors -> { }));
+
+    assertEquals(List.of(Set.of("Patient"), Set.of("Patient", "Observation")), slices);
+  }
+
+  @Test
+  public void usesTheWholeSchemaAfterMaxSlices() {
+    List<Set<String>> slices = Lists.newArrayList();
+
+    SlicingValidator validator = new SlicingValidator(resourceTypes -> {
+      slices.add(resourceTypes);
+      return (model, errorHandler) -> true;
+    });
+
+    List<String> types = List.of("Patient", "Observation", "Organization", "Practitioner", "Encounter", "Condition");
+    for (String type : types) {
+      validator.validate(resource(type, "1"), errors -> { });
+    }
+
+    assertEquals(SlicingValidator.MAX_SLICES, slices.size());
+    assertEquals(Set.of("Patient", "Observation", "Organization"), slices.get(SlicingValidator.MAX_SLICES - 2));
+
+    // The whole schema, which covers all the types that follow
+    assertEquals(Set.of(), slices.get(SlicingValidator.MAX_SLICES - 1));
+  }
+
+  private static Model resource(String type, String id) {
+    Model model = ModelFactory.createDefaultModel();
+    model.read(new StringReader("@prefix fhir: <http://hl7.org/fhir/> .\n"
+        + "<http://hl7.org/fhir/" + type + "/" + id + "> a fhir:" + type + " ; fhir:nodeRole fhir:treeRoot .\n"), null, "TTL");
+
+    return model;
+  }
+
+}
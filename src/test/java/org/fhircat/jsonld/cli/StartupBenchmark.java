@@ -0,0 +1,106 @@
+package org.fhircat.jsonld.cli;
+
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Measures the startup latency of the command line: the time to first byte of output (from starting a JVM until
+ * the first N-Triples byte is written to standard output), and until the process exits, when converting a single
+ * small Patient. Each run forks a new JVM on this JVM's classpath, and the first run is a warm-up.
+ *
+ * Arguments: the number of runs, then any more options for the conversion, such as <code>-cs</code> for a local
+ * context server. JVM options for the forked JVMs (such as an AppCDS archive) go in the <code>jvm.args</code>
+ * system property. The forked JVM needs the project classpath, so run this with a plain java command, for example:
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *     -Dexec.args="-cp %classpath org.fhircat.jsonld.cli.StartupBenchmark 10"
+ * </pre>
+ */
+public class StartupBenchmark {
+
+  private static final String PATIENT = "startup-patient.json";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: StartupBenchmark <runs> [tordf option...]");
+      System.exit(1);
+    }
+
+    int runs = Integer.parseInt(args[0]);
+
+    File patient = File.createTempFile("startup-patient", ".json");
+    patient.deleteOnExit();
+    try (InputStream in = StartupBenchmark.class.getClassLoader().getResourceAsStream(PATIENT)) {
+      Files.copy(in, patient.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    List<String> command = Lists.newArrayList(new File(System.getProperty("java.home"), "bin/java").getPath());
+    command.addAll(Arrays.asList(StringUtils.split(System.getProperty("jvm.args", ""))));
+    command.addAll(List.of("-cp", System.getProperty("java.class.path"), Cli.class.getName(), "-i", patient.getPath()));
+    command.addAll(Arrays.asList(args).subList(1, args.length));
+
+    long[] firstByte = new long[runs];
+    long[] exit = new long[runs];
+
+    run(command);
+    for (int i = 0; i < runs; i++) {
+      long[] times = run(command);
+      firstByte[i] = times[0];
+      exit[i] = times[1];
+    }
+
+    System.out.println(String.format("%d runs of: %s", runs, String.join(" ", command.subList(command.indexOf("-cp") + 2, command.size()))));
+    System.out.println("  time to first byte: " + summary(firstByte));
+    System.out.println("  time to exit:       " + summary(exit));
+  }
+
+  /**
+   * The milliseconds from starting the JVM to the first byte of its standard output, and to its exit.
+   */
+  private static long[] run(List<String> command) throws IOException, InterruptedException {
+    File errors = File.createTempFile("startup", ".log");
+
+    try {
+      long start = System.nanoTime();
+
+      Process process = new ProcessBuilder(command).redirectError(errors).start();
+
+      long firstByte = -1;
+      try (InputStream out = process.getInputStream()) {
+        if (out.read() >= 0) {
+          firstByte = System.nanoTime();
+        }
+        out.transferTo(OutputStream.nullOutputStream());
+      }
+
+      int status = process.waitFor();
+      long end = System.nanoTime();
+
+      if (status != 0 || firstByte < 0) {
+        throw new IllegalStateException("No output (exit status " + status + "): "
+            + new String(Files.readAllBytes(errors.toPath())));
+      }
+
+      return new long[] { TimeUnit.NANOSECONDS.toMillis(firstByte - start), TimeUnit.NANOSECONDS.toMillis(end - start) };
+    } finally {
+      errors.delete();
+    }
+  }
+
+  private static String summary(long[] millis) {
+    long[] sorted = millis.clone();
+    Arrays.sort(sorted);
+
+    return String.format("min %d ms, median %d ms, max %d ms", sorted[0], sorted[sorted.length / 2], sorted[sorted.length - 1]);
+  }
+
+}
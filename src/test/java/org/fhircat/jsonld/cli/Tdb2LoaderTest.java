@@ -0,0 +1,75 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.TDB2Factory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class Tdb2LoaderTest {
+
+  private static final String BASE_URI = "http://hl7.org/fhir/";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void loadsOneNamedGraphPerResource() throws Exception {
+    File directory = this.folder.newFolder("tdb2");
+
+    Tdb2Loader loader = new Tdb2Loader(directory, 2);
+    loader.load(patient("1"));
+    loader.load(patient("2"));
+    loader.load(patient("3"));
+    loader.close();
+
+    assertEquals(Set.of(BASE_URI + "Patient/1", BASE_URI + "Patient/2", BASE_URI + "Patient/3"), graphNames(directory));
+  }
+
+  @Test
+  public void abortRollsBackTheBatchInProgress() throws Exception {
+    File directory = this.folder.newFolder("tdb2");
+
+    // The first batch of two is committed, the third resource is not
+    Tdb2Loader loader = new Tdb2Loader(directory, 2);
+    loader.load(patient("1"));
+    loader.load(patient("2"));
+    loader.load(patient("3"));
+    loader.abort();
+
+    assertEquals(Set.of(BASE_URI + "Patient/1", BASE_URI + "Patient/2"), graphNames(directory));
+  }
+
+  private static Model patient(String id) {
+    Model model = ModelFactory.createDefaultModel();
+
+    Resource patient = model.createResource(BASE_URI + "Patient/" + id);
+    model.add(patient, model.createProperty(BASE_URI, "nodeRole"), model.createResource(BASE_URI + "treeRoot"));
+    model.add(patient, model.createProperty(BASE_URI, "Resource.id"), model.createLiteral(id));
+
+    return model;
+  }
+
+  private static Set<String> graphNames(File directory) {
+    Dataset dataset = TDB2Factory.connectDataset(directory.getPath());
+
+    try {
+      Set<String> names = new TreeSet<>();
+      Txn.executeRead(dataset, () -> dataset.listModelNames().forEachRemaining(name -> names.add(name.getURI())));
+
+      return names;
+    } finally {
+      dataset.close();
+    }
+  }
+
+}
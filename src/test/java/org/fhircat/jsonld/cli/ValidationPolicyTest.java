@@ -0,0 +1,108 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import org.junit.Test;
+
+public class ValidationPolicyTest {
+
+  private static final String PATIENT = "http://hl7.org/fhir/Patient/";
+
+  @Test
+  public void parsesEachPolicy() {
+    assertEquals("all", ValidationPolicy.parse("all").toString());
+    assertEquals("fraction:0.25", ValidationPolicy.parse("fraction:0.25").toString());
+    assertEquals("first:3", ValidationPolicy.parse(" first:3 ").toString());
+    assertEquals("stratified:0.1:10", ValidationPolicy.parse("stratified:0.1").toString());
+    assertEquals("stratified:0.1:2", ValidationPolicy.parse("stratified:0.1:2").toString());
+
+    assertFalse(ValidationPolicy.parse("all").isSampling());
+    assertTrue(ValidationPolicy.parse("first:3").isSampling());
+  }
+
+  @Test
+  public void rejectsInvalidPolicies() {
+    for (String policy : new String[] { "some", "all:1", "fraction", "fraction:2", "fraction:x", "first:-1", "stratified:0.1:2:3" }) {
+      try {
+        ValidationPolicy.parse(policy);
+        throw new AssertionError("Accepted: " + policy);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void selectsTheFirstOfEachResourceType() {
+    ValidationPolicy.Sampler sampler = ValidationPolicy.firstPerType(2).newSampler();
+
+    assertTrue(sampler.select("Patient", PATIENT + "1", 10));
+    assertTrue(sampler.select("Observation", "http://hl7.org/fhir/Observation/1", 10));
+    assertTrue(sampler.select("Patient", PATIENT + "2", 10));
+    assertFalse(sampler.select("Patient", PATIENT + "3", 10));
+    assertTrue(sampler.select("Observation", "http://hl7.org/fhir/Observation/2", 10));
+    assertFalse(sampler.select("Observation", "http://hl7.org/fhir/Observation/3", 10));
+  }
+
+  @Test
+  public void selectsTheSameFractionOfResourcesOnEveryRun() {
+    ValidationPolicy policy = ValidationPolicy.fraction(0.25);
+    ValidationPolicy.Sampler first = policy.newSampler();
+    ValidationPolicy.Sampler second = policy.newSampler();
+
+    int selected = 0;
+    for (int i = 0; i < 10000; i++) {
+      boolean selectedFirst = first.select("Patient", PATIENT + i, 10);
+      assertEquals(selectedFirst, second.select("Patient", PATIENT + i, 10));
+
+      if (selectedFirst) {
+        selected++;
+      }
+    }
+
+    assertTrue("Selected " + selected, selected > 2250 && selected < 2750);
+
+    assertFalse(ValidationPolicy.fraction(0).newSampler().select("Patient", PATIENT + "1", 10));
+    assertTrue(ValidationPolicy.fraction(1).newSampler().select("Patient", PATIENT + "1", 10));
+  }
+
+  @Test
+  public void selectsAMinimumOfEachStratum() {
+    ValidationPolicy.Sampler sampler = ValidationPolicy.stratified(0, 1).newSampler();
+
+    // Size classes are powers of two of the triple count
+    assertTrue(sampler.select("Patient", PATIENT + "1", 16));
+    assertFalse(sampler.select("Patient", PATIENT + "2", 31));
+    assertTrue(sampler.select("Patient", PATIENT + "3", 32));
+    assertTrue(sampler.select("Observation", "http://hl7.org/fhir/Observation/1", 16));
+    assertFalse(sampler.select("Observation", "http://hl7.org/fhir/Observation/2", 16));
+  }
+
+  @Test
+  public void countsAndEstimatesConformancePerResourceType() {
+    ValidationReport report = new ValidationReport();
+
+    for (int i = 0; i < 10; i++) {
+      report.record("Patient", i < 4, i < 3);
+    }
+    report.record("Observation", false, false);
+
+    assertEquals(Set.of("Observation", "Patient"), report.getResourceTypes());
+    assertEquals(10, report.getConverted("Patient"));
+    assertEquals(4, report.getValidated("Patient"));
+    assertEquals(3, report.getConforming("Patient"));
+    assertEquals(0, report.getConverted("Organization"));
+
+    // 3 of 4: Wilson score interval
+    double[] interval = report.getConformanceInterval("Patient");
+    assertEquals(0.301, interval[0], 0.001);
+    assertEquals(0.954, interval[1], 0.001);
+
+    assertArrayEquals(new double[] { 0, 1 }, report.getConformanceInterval("Observation"), 0);
+  }
+
+}
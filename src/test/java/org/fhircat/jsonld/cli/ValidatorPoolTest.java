@@ -0,0 +1,112 @@
+package org.fhircat.jsonld.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.Lists;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Validating the same resources on several threads through a {@link ValidatorPool} gives the same outcomes
+ * as validating them one at a time, with each engine.
+ */
+@RunWith(Parameterized.class)
+public class ValidatorPoolTest {
+
+  private static final int THREADS = 4;
+
+  private static final int COPIES = 12;
+
+  private static final Set<String> SHAPES = Set.of("Patient", "Observation");
+
+  private static final String PREFIXES = "@prefix fhir: <http://hl7.org/fhir/> .\n";
+
+  // Conformant, a Patient with a repeated element, and an Observation without its required status and code
+  private static final List<String> RESOURCES = List.of(
+      "<http://hl7.org/fhir/Patient/p%d> a fhir:Patient ; fhir:nodeRole fhir:treeRoot ;\n"
+          + "  fhir:Resource.id [ fhir:value \"p%<d\" ] ;\n"
+          + "  fhir:Patient.active [ fhir:value true ] .\n",
+      "<http://hl7.org/fhir/Patient/q%d> a fhir:Patient ; fhir:nodeRole fhir:treeRoot ;\n"
+          + "  fhir:Resource.id [ fhir:value \"q%<d\" ] ;\n"
+          + "  fhir:Patient.active [ fhir:value true ], [ fhir:value false ] .\n",
+      "<http://hl7.org/fhir/Observation/o%d> a fhir:Observation ; fhir:nodeRole fhir:treeRoot ;\n"
+          + "  fhir:Resource.id [ fhir:value \"o%<d\" ] .\n");
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> engines() {
+    return List.of(new Object[] { "scala" }, new Object[] { "jena" });
+  }
+
+  private final String engine;
+
+  public ValidatorPoolTest(String engine) {
+    this.engine = engine;
+  }
+
+  @Test
+  public void concurrentValidationMatchesSingleThreaded() throws Exception {
+    List<Model> models = models();
+
+    List<String> single = validateAll(new ValidatorPool(() -> FhirRdfConverter.createValidator(this.engine, SHAPES), 1), models, 1);
+    List<String> concurrent = validateAll(new ValidatorPool(() -> FhirRdfConverter.createValidator(this.engine, SHAPES), THREADS), models, THREADS);
+
+    assertEquals(single, concurrent);
+  }
+
+  private static List<Model> models() {
+    List<Model> models = Lists.newArrayList();
+
+    for (int i = 0; i < COPIES; i++) {
+      for (String resource : RESOURCES) {
+        Model model = ModelFactory.createDefaultModel();
+        model.read(new StringReader(PREFIXES + String.format(resource, i)), null, "TTL");
+
+        models.add(model);
+      }
+    }
+
+    return models;
+  }
+
+  /**
+   * The outcome of each validation, in the order of <code>models</code>: conformance, and the validation results.
+   */
+  private static List<String> validateAll(Validator validator, List<Model> models, int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    try {
+      List<Future<String>> outcomes = Lists.newArrayList();
+      for (Model model : models) {
+        outcomes.add(executor.submit(() -> {
+          Set<String> results = new TreeSet<>();
+
+          boolean conforms = validator.validate(model, errors -> errors.forEach(result ->
+              results.add(result.getNode() + "@" + result.getShape() + ": " + result.getMessage())));
+
+          return conforms + " " + results;
+        }));
+      }
+
+      List<String> validated = Lists.newArrayList();
+      for (Future<String> outcome : outcomes) {
+        validated.add(outcome.get());
+      }
+
+      return validated;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}